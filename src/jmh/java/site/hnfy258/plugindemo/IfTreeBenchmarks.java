@@ -0,0 +1,87 @@
+package site.hnfy258.plugindemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 树构建、HTML渲染和转义的吞吐量基准，配合gc profiler查看分配速率。
+ * 形状和规模可以用JMH参数覆盖，例如 -p shape=DEEP -p size=5000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IfTreeBenchmarks {
+    @Param({"DEEP", "WIDE_SWITCH", "ELSE_IF_CHAIN"})
+    public SyntheticTrees.Shape shape;
+
+    @Param({"100", "1000"})
+    public int size;
+
+    private CharSequence source;
+    private IFTreeNode tree;
+    private CompactIfTree compactTree;
+    private String escapeInput;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = SyntheticTrees.source(size);
+        tree = SyntheticTrees.build(shape, source, size);
+        compactTree = tree.toCompact();
+        escapeInput = source.toString();
+        // 预热缓存，toStringCached基准测量命中时的开销
+        tree.toStringCached();
+    }
+
+    @Benchmark
+    public IFTreeNode buildTree() {
+        return SyntheticTrees.build(shape, source, size);
+    }
+
+    @Benchmark
+    public CompactIfTree toCompact() {
+        return tree.toCompact();
+    }
+
+    @Benchmark
+    public String render() {
+        return tree.toString();
+    }
+
+    @Benchmark
+    public String renderCompact() {
+        return compactTree.toString();
+    }
+
+    @Benchmark
+    public String renderCached() {
+        return tree.toStringCached();
+    }
+
+    @Benchmark
+    public String renderAfterInvalidate() {
+        tree.invalidateCache();
+        return tree.toStringCached();
+    }
+
+    @Benchmark
+    public String escapeHtml() {
+        return IfTreeHtmlRenderer.escapeHtml(escapeInput);
+    }
+
+    @Benchmark
+    public void colorForDepth(Blackhole blackhole) {
+        for (int depth = 0; depth < size; depth++) {
+            blackhole.consume(IfTreeHtmlRenderer.getColorForDepth(depth));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package site.hnfy258.plugindemo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 生成极端形状的Java方法，用于压测控制流分析、行标记收集和弹窗渲染：
+ * 超长else-if链、深层嵌套、超大switch（传统和箭头两种写法）以及多层try/catch。
+ * <p>
+ * 输出为一个可以直接打开的最小项目，源码在src目录下：
+ * <pre>
+ * java PathologicalJavaSource &lt;输出目录&gt; [缩放比例]
+ * </pre>
+ */
+public final class PathologicalJavaSource {
+    private static final int ELSE_IF_ARMS = 10_000;
+    private static final int NESTING_DEPTH = 200;
+    private static final int SWITCH_CASES = 5_000;
+    private static final int TRY_LADDER_DEPTH = 100;
+    private static final int CATCHES_PER_TRY = 5;
+
+    private PathologicalJavaSource() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: PathologicalJavaSource <output-dir> [scale]");
+            System.exit(2);
+        }
+        Path root = Paths.get(args[0]);
+        double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        writeProject(root, scale);
+        System.out.println("Generated pathological sources in " + root.toAbsolutePath());
+    }
+
+    static void writeProject(Path root, double scale) throws IOException {
+        Path sources = root.resolve("src/pathological");
+        Files.createDirectories(sources);
+        Files.createDirectories(root.resolve(".idea"));
+
+        write(sources.resolve("ElseIfChain.java"), classWith("ElseIfChain", elseIfChain(scaled(ELSE_IF_ARMS, scale))));
+        write(sources.resolve("DeepNesting.java"), classWith("DeepNesting", deepNesting(scaled(NESTING_DEPTH, scale))));
+        write(sources.resolve("WideSwitch.java"), classWith("WideSwitch",
+                classicSwitch(scaled(SWITCH_CASES, scale)) + arrowSwitch(scaled(SWITCH_CASES, scale))));
+        write(sources.resolve("TryCatchLadder.java"), classWith("TryCatchLadder",
+                tryCatchLadder(scaled(TRY_LADDER_DEPTH, scale))));
+
+        // 带源码目录的模块，批量分析只处理源码根下的文件
+        write(root.resolve("pathological.iml"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<module type=\"JAVA_MODULE\" version=\"4\">\n"
+                        + "  <component name=\"NewModuleRootManager\" inherit-compiler-output=\"true\">\n"
+                        + "    <content url=\"file://$MODULE_DIR$\">\n"
+                        + "      <sourceFolder url=\"file://$MODULE_DIR$/src\" isTestSource=\"false\" />\n"
+                        + "    </content>\n"
+                        + "    <orderEntry type=\"sourceFolder\" forTests=\"false\" />\n"
+                        + "  </component>\n"
+                        + "</module>\n");
+        write(root.resolve(".idea/modules.xml"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<project version=\"4\">\n"
+                        + "  <component name=\"ProjectModuleManager\">\n"
+                        + "    <modules>\n"
+                        + "      <module fileurl=\"file://$PROJECT_DIR$/pathological.iml\" filepath=\"$PROJECT_DIR$/pathological.iml\" />\n"
+                        + "    </modules>\n"
+                        + "  </component>\n"
+                        + "</project>\n");
+    }
+
+    static String elseIfChain(int arms) {
+        StringBuilder code = new StringBuilder(arms * 48);
+        code.append("    int elseIfChain(int value) {\n");
+        code.append("        if (value == 0) {\n            return 0;\n        }");
+        for (int i = 1; i < arms; i++) {
+            code.append(" else if (value == ").append(i).append(") {\n            return ").append(i).append(";\n        }");
+        }
+        code.append(" else {\n            return -1;\n        }\n    }\n");
+        return code.toString();
+    }
+
+    static String deepNesting(int depth) {
+        StringBuilder code = new StringBuilder(depth * 64);
+        code.append("    int deepNesting(int value) {\n        int result = 0;\n");
+        String[] openers = {"if (value > %d) {", "for (int i%d = 0; i%<d < value; i%<d++) {", "while (value-- > %d) {"};
+        for (int i = 0; i < depth; i++) {
+            indent(code, i + 2).append(String.format(openers[i % openers.length], i)).append('\n');
+        }
+        indent(code, depth + 2).append("result++;\n");
+        for (int i = depth - 1; i >= 0; i--) {
+            indent(code, i + 2).append("}\n");
+        }
+        code.append("        return result;\n    }\n");
+        return code.toString();
+    }
+
+    static String classicSwitch(int cases) {
+        StringBuilder code = new StringBuilder(cases * 48);
+        code.append("    int classicSwitch(int value) {\n        switch (value) {\n");
+        for (int i = 0; i < cases; i++) {
+            code.append("            case ").append(i).append(":\n");
+            if (i % 10 == 0) {
+                code.append("                if (value > 0) {\n                    return ").append(i).append(";\n                }\n");
+            }
+            code.append("                return ").append(i).append(";\n");
+        }
+        code.append("            default:\n                return -1;\n        }\n    }\n");
+        return code.toString();
+    }
+
+    static String arrowSwitch(int cases) {
+        StringBuilder code = new StringBuilder(cases * 40);
+        code.append("    int arrowSwitch(int value) {\n        switch (value) {\n");
+        for (int i = 0; i < cases; i += 2) {
+            code.append("            case ").append(i).append(", ").append(i + 1).append(" -> {\n");
+            code.append("                return ").append(i).append(";\n            }\n");
+        }
+        code.append("            default -> {\n                return -1;\n            }\n        }\n    }\n");
+        return code.toString();
+    }
+
+    static String tryCatchLadder(int depth) {
+        String[] exceptions = {"IllegalStateException", "IllegalArgumentException", "UnsupportedOperationException",
+                "ArithmeticException", "IndexOutOfBoundsException"};
+        StringBuilder code = new StringBuilder(depth * 256);
+        code.append("    int tryCatchLadder(int value) {\n");
+        for (int i = 0; i < depth; i++) {
+            indent(code, i + 2).append("try {\n");
+        }
+        indent(code, depth + 2).append("value = value / (value - 1);\n");
+        for (int i = depth - 1; i >= 0; i--) {
+            indent(code, i + 2).append('}');
+            for (int c = 0; c < CATCHES_PER_TRY; c++) {
+                code.append(" catch (").append(exceptions[c % exceptions.length]).append(" e").append(i).append('_')
+                        .append(c).append(") {\n");
+                indent(code, i + 3).append("value += ").append(c).append(";\n");
+                indent(code, i + 2).append('}');
+            }
+            code.append(" finally {\n");
+            indent(code, i + 3).append("value--;\n");
+            indent(code, i + 2).append("}\n");
+        }
+        code.append("        return value;\n    }\n");
+        return code.toString();
+    }
+
+    private static String classWith(String name, String methods) {
+        return "package pathological;\n\npublic class " + name + " {\n" + methods + "}\n";
+    }
+
+    private static StringBuilder indent(StringBuilder code, int level) {
+        for (int i = 0; i < level; i++) {
+            code.append("    ");
+        }
+        return code;
+    }
+
+    private static int scaled(int size, double scale) {
+        return Math.max(1, (int) Math.round(size * scale));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,85 @@
+package site.hnfy258.plugindemo;
+
+/**
+ * 生成指定形状的控制流树，标签和真实分析结果一样引用源码区间，条件中带有需要转义的字符
+ */
+final class SyntheticTrees {
+    enum Shape {
+        /** 每层一个if/for/while，逐层嵌套 */
+        DEEP,
+        /** 一个switch下有size个case */
+        WIDE_SWITCH,
+        /** size个分支的else-if链 */
+        ELSE_IF_CHAIN
+    }
+
+    private static final String CONDITION = "value < limit && (flags & MASK) != 0 || name.equals(\"<default>\")";
+
+    private SyntheticTrees() {
+    }
+
+    /**
+     * 模拟文件内容：size个条件表达式首尾相接
+     */
+    static CharSequence source(int size) {
+        StringBuilder source = new StringBuilder(size * (CONDITION.length() + 1));
+        for (int i = 0; i < size; i++) {
+            source.append(CONDITION).append('\n');
+        }
+        return source;
+    }
+
+    static IFTreeNode build(Shape shape, CharSequence source, int size) {
+        IFTreeNode root = new IFTreeNode(IFTreeNode.NodeType.METHOD, "process(int value, String name)");
+        switch (shape) {
+            case DEEP:
+                buildDeep(root, source, size);
+                break;
+            case WIDE_SWITCH:
+                buildWideSwitch(root, source, size);
+                break;
+            case ELSE_IF_CHAIN:
+                buildElseIfChain(root, source, size);
+                break;
+        }
+        return root;
+    }
+
+    private static void buildDeep(IFTreeNode root, CharSequence source, int size) {
+        IFTreeNode.NodeType[] types = {IFTreeNode.NodeType.IF, IFTreeNode.NodeType.FOR, IFTreeNode.NodeType.WHILE};
+        IFTreeNode parent = root;
+        for (int i = 0; i < size; i++) {
+            IFTreeNode node = condition(types[i % types.length], source, i);
+            parent.addChild(node);
+            parent = node;
+        }
+    }
+
+    private static void buildWideSwitch(IFTreeNode root, CharSequence source, int size) {
+        IFTreeNode switchNode = condition(IFTreeNode.NodeType.SWITCH, source, 0);
+        root.addChild(switchNode);
+        for (int i = 0; i < size; i++) {
+            IFTreeNode caseNode = new IFTreeNode(IFTreeNode.NodeType.CASE, "case " + i + ":");
+            switchNode.addChild(caseNode);
+            // 每隔几个case放一个嵌套的if，接近真实的switch
+            if (i % 4 == 0) {
+                caseNode.addChild(condition(IFTreeNode.NodeType.IF, source, i));
+            }
+        }
+        switchNode.addChild(new IFTreeNode(IFTreeNode.NodeType.DEFAULT, "default"));
+    }
+
+    private static void buildElseIfChain(IFTreeNode root, CharSequence source, int size) {
+        root.addChild(condition(IFTreeNode.NodeType.IF, source, 0));
+        for (int i = 1; i < size; i++) {
+            root.addChild(condition(IFTreeNode.NodeType.ELSE_IF, source, i));
+        }
+        root.addChild(new IFTreeNode(IFTreeNode.NodeType.ELSE, "else"));
+    }
+
+    private static IFTreeNode condition(IFTreeNode.NodeType type, CharSequence source, int index) {
+        int lines = source.length() / (CONDITION.length() + 1);
+        int start = (index % lines) * (CONDITION.length() + 1);
+        return new IFTreeNode(type, source, start, CONDITION.length());
+    }
+}
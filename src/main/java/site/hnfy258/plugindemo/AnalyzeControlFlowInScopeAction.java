@@ -0,0 +1,59 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.analysis.BaseAnalysisAction;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 在项目、模块、目录或变更文件范围内批量分析所有方法的控制流，完成后显示复杂度报告
+ */
+public class AnalyzeControlFlowInScopeAction extends BaseAnalysisAction {
+
+    public AnalyzeControlFlowInScopeAction() {
+        super("Analyze Control Flow", "Control Flow");
+    }
+
+    @Override
+    protected void analyze(@NotNull Project project, @NotNull AnalysisScope scope) {
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Analyzing control flow", true) {
+            private List<MethodReport> reports = Collections.emptyList();
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                indicator.setText("Collecting Java files...");
+                List<VirtualFile> files = ReadAction.compute(() -> {
+                    List<VirtualFile> result = new ArrayList<>();
+                    scope.accept(file -> {
+                        indicator.checkCanceled();
+                        if (file.getFileType() == JavaFileType.INSTANCE) {
+                            result.add(file);
+                        }
+                        return true;
+                    });
+                    return result;
+                });
+
+                indicator.setIndeterminate(false);
+                indicator.setText("Analyzing control flow in " + files.size() + " files");
+                reports = new BatchControlFlowAnalyzer(project).analyze(files, indicator);
+            }
+
+            @Override
+            public void onSuccess() {
+                new ControlFlowReportDialog(project, reports, scope.getDisplayName()).show();
+            }
+        });
+    }
+}
@@ -1,111 +1,105 @@
 package site.hnfy258.plugindemo;
 
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ReadAction;
-import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.progress.ProgressManager;
-import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.psi.*;
-import com.intellij.psi.util.PsiTreeUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 public class AnalyzeIf {
-    public IFTreeNode analyze(PsiMethod method) {
-        return ReadAction.compute(() -> {
-            String methodName = method.getName() + getParameterList(method);
-            IFTreeNode rootNode = new IFTreeNode(IFTreeNode.NodeType.METHOD, methodName);
+    // 每条控制流语句上记录它上次生成的子树及其指标，未被编辑的语句在重新分析时直接复用
+    private static final Key<Memo> SUBTREE_KEY = Key.create("visualizeif.subtree");
+    private static final IFTreeNode[] EMPTY_NODES = new IFTreeNode[0];
+    private static final String MAX_NODES_KEY = "visualizeif.analysis.maxNodes";
+    private static final String MAX_DEPTH_KEY = "visualizeif.analysis.maxDepth";
+    private static final String TIMEOUT_KEY = "visualizeif.analysis.timeoutMs";
 
-            PsiCodeBlock body = method.getBody();
-            if (body != null) {
-                analyzeCodeBlock(body, rootNode);
-            }
+    private final ControlFlowDiagnostics.Stage stage;
 
-            return rootNode;
-        });
+    public AnalyzeIf() {
+        this(ControlFlowDiagnostics.Stage.TREE_BUILD);
     }
 
-    // 使用IDEA调度器并行分析多个方法
-    public List<IFTreeNode> analyzeMultipleMethods(List<PsiMethod> methods) {
-        List<CompletableFuture<IFTreeNode>> futures = new ArrayList<>(methods.size());
-        // 创建固定大小的结果数组，用于保持顺序
-        IFTreeNode[] orderedResults = new IFTreeNode[methods.size()];
-
-        // 使用IDE的线程池提交任务
-        for (int i = 0; i < methods.size(); i++) {
-            final PsiMethod method = methods.get(i);
-            final int methodIndex = i;
-
-            CompletableFuture<IFTreeNode> future = new CompletableFuture<>();
-
-            ApplicationManager.getApplication().executeOnPooledThread(() -> {
-                try {
-                    IFTreeNode result = analyze(method);
-                    // 直接将结果放入正确的位置
-                    orderedResults[methodIndex] = result;
-                    future.complete(result);
-                } catch (Exception e) {
-                    future.completeExceptionally(e);
-                }
-            });
+    /**
+     * @param stage 分析耗时记录在诊断信息的哪个阶段下，后台预热使用BACKGROUND_BUILD
+     */
+    AnalyzeIf(@NotNull ControlFlowDiagnostics.Stage stage) {
+        this.stage = stage;
+    }
 
-            futures.add(future);
-        }
+    public IFTreeNode analyze(PsiMethod method) {
+        return ReadAction.compute(() -> analyze(method, sourceOf(method.getContainingFile())));
+    }
 
-        // 等待所有任务完成
-        for (CompletableFuture<IFTreeNode> future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                ApplicationManager.getApplication().invokeLater(() -> {
-                    // 在UI线程中处理异常
-                    e.printStackTrace();
-                });
+    /**
+     * 在一次遍历中分析文件里所有带方法体、且满足filter的方法，文件内容快照只取一次。
+     * 需要在读操作中调用
+     */
+    public void analyzeFile(@NotNull PsiFile file, @NotNull Predicate<? super PsiMethod> filter,
+                            @NotNull BiConsumer<? super PsiMethod, ? super IFTreeNode> consumer) {
+        CharSequence source = sourceOf(file);
+        file.accept(new JavaRecursiveElementWalkingVisitor() {
+            @Override
+            public void visitMethod(@NotNull PsiMethod method) {
+                ProgressManager.checkCanceled();
+                if (method.getBody() != null && filter.test(method)) {
+                    consumer.accept(method, analyze(method, source));
+                }
+                // 继续进入方法体，处理局部类和匿名类中的方法
+                super.visitMethod(method);
             }
-        }
+        });
+    }
 
-        // 将有序结果转换为List
-        List<IFTreeNode> results = new ArrayList<>(methods.size());
-        for (IFTreeNode node : orderedResults) {
-            if (node != null) {
-                results.add(node);
-            }
+    private IFTreeNode analyze(PsiMethod method, CharSequence source) {
+        long start = System.nanoTime();
+        String methodName = method.getName() + getParameterList(method);
+        IFTreeNode rootNode = new IFTreeNode(IFTreeNode.NodeType.METHOD, methodName);
+
+        PsiCodeBlock body = method.getBody();
+        if (body != null) {
+            TreeBuilder builder = new TreeBuilder(rootNode, source,
+                    Registry.intValue(MAX_NODES_KEY, 100_000), Registry.intValue(MAX_DEPTH_KEY, 256),
+                    Registry.intValue(TIMEOUT_KEY, 3_000));
+            builder.visitStatements(body.getStatements());
+            // 没有被记录的节点（截断的子树、方法体顶层的节点）也驻留，不再引用文件快照
+            builder.intern(0, rootNode, 0);
+            // 指标在构建过程中已经累计好，记录在根节点上，之后无需再遍历整棵树
+            rootNode.setMetrics(builder.metrics.build());
         }
 
-        return results;
+        ControlFlowDiagnostics.getInstance().recordAnalysis(stage, () -> describe(method, methodName),
+                System.nanoTime() - start);
+        return rootNode;
     }
 
-    public void analyzeMultipleMethodsWithProgress(List<PsiMethod> methods, Runnable onComplete) {
-        ProgressManager.getInstance().run(new Task.Backgroundable(
-                null, "Analyzing Methods", true) {
-            @Override
-            public void run(@NotNull ProgressIndicator indicator) {
-                indicator.setIndeterminate(false);
-                List<IFTreeNode> results = new ArrayList<>(methods.size());
-
-                for (int i = 0; i < methods.size(); i++) {
-                    if (indicator.isCanceled()) {
-                        break;
-                    }
-
-                    indicator.setText("Analyzing method: " + methods.get(i).getName());
-                    indicator.setFraction((double) i / methods.size());
-
-                    results.add(analyze(methods.get(i)));
-                }
+    private static String describe(PsiMethod method, String methodName) {
+        PsiClass containingClass = method.getContainingClass();
+        String className = containingClass == null ? null : containingClass.getQualifiedName();
+        PsiFile file = method.getContainingFile();
+        return (className != null ? className + "#" : "") + methodName + (file != null ? " in " + file.getName() : "");
+    }
 
-                // 在UI线程中处理结果
-                ApplicationManager.getApplication().invokeLater(() -> {
-                    // 这里可以处理结果
-                    onComplete.run();
-                });
-            }
-        });
+    /**
+     * 异步分析多个方法，每个方法完成后立即通过listener交出结果，不阻塞调用方。
+     * 并发数和在途数量受限，可通过返回的句柄取消，详见 {@link StreamingMethodAnalyzer}
+     */
+    public StreamingMethodAnalyzer.Handle analyzeMultipleMethods(@NotNull List<? extends PsiMethod> methods,
+                                                                 @NotNull StreamingMethodAnalyzer.Listener listener) {
+        return new StreamingMethodAnalyzer().analyze(methods, listener);
     }
 
     private String getParameterList(PsiMethod method) {
@@ -124,421 +118,452 @@ public class AnalyzeIf {
     }
 
 
-    private void analyzeCodeBlock(PsiCodeBlock codeBlock, IFTreeNode parentNode) {
-        // Use ReadAction to safely gather all statements from the code block
-        List<PsiStatement> statements = ReadAction.compute(() -> {
-            List<PsiStatement> result = new ArrayList<>();
-            for (PsiStatement statement : codeBlock.getStatements()) {
-                result.add(statement);
-            }
-            return result;
-        });
-
-        // For complex code blocks, consider using IDEA's task scheduling
-        if (statements.size() > 3) {
-            // Create a result list with the same size as the statements list, preserving original order
-            List<IFTreeNode[]> resultNodes = new ArrayList<>(statements.size());
-            for (int i = 0; i < statements.size(); i++) {
-                resultNodes.add(null);
-            }
-
-            List<CompletableFuture<Void>> futures = new ArrayList<>();
-
-            for (int i = 0; i < statements.size(); i++) {
-                final PsiStatement statement = statements.get(i);
-                final int statementIndex = i;
+    /**
+     * 与PSI偏移量一致的文件内容快照。构建时节点只记录其中的区间，子树被记录或分析结束时整批标签才复制到一个共用的字符串中
+     */
+    private static CharSequence sourceOf(PsiFile file) {
+        PsiDocumentManager documentManager = PsiDocumentManager.getInstance(file.getProject());
+        Document document = documentManager.getCachedDocument(file);
+        return document != null ? documentManager.getLastCommittedText(document) : file.getViewProvider().getContents();
+    }
 
-                if (statement instanceof PsiIfStatement) {
-                    // Only use parallel processing for complex if statements
-                    PsiIfStatement ifStatement = (PsiIfStatement) statement;
-                    CompletableFuture<Void> future = new CompletableFuture<>();
+    /**
+     * 分析是否因节点数或时间上限提前结束。这类结果与当时的负载有关，不应被缓存；
+     * 深度上限只截断特定分支，结果是确定的
+     */
+    public static boolean isStopped(IFTreeNode root) {
+        List<IFTreeNode> children = root.getChildren();
+        return !children.isEmpty() && children.get(children.size() - 1).getType() == IFTreeNode.NodeType.TRUNCATED;
+    }
 
-                    ApplicationManager.getApplication().executeOnPooledThread(() -> {
-                        try {
-                            // Create a temporary parent node to collect results
-                            IFTreeNode tempParent = new IFTreeNode(IFTreeNode.NodeType.TEMP, "temp");
+    /**
+     * 清除从被修改元素到文件根路径上所有语句记录的子树，
+     * 兄弟语句的子树保持不变，下次分析时继续复用
+     */
+    public static void invalidateSubtrees(@Nullable PsiElement changed) {
+        for (PsiElement element = changed; element != null && !(element instanceof PsiFile); element = element.getParent()) {
+            if (element instanceof PsiStatement) {
+                element.putUserData(SUBTREE_KEY, null);
+            }
+        }
+    }
 
-                            // Wrap the PSI access in ReadAction
-                            ReadAction.run(() -> analyzeIfStatement(ifStatement, tempParent));
+    /**
+     * 语句上记录的子树：它生成的各个节点，以及这些节点的指标，最大深度相对于语句所在的深度
+     */
+    private static final class Memo {
+        final IFTreeNode[] nodes;
+        final IfTreeMetrics metrics;
 
-                            // Store the child node(s) of the temporary node to add in original order
-                            resultNodes.set(statementIndex, tempParent.getChildren().toArray(new IFTreeNode[0]));
-                            future.complete(null);
-                        } catch (Exception e) {
-                            future.completeExceptionally(e);
-                        }
-                    });
+        Memo(IFTreeNode[] nodes, IfTreeMetrics metrics) {
+            this.nodes = nodes;
+            this.metrics = metrics;
+        }
+    }
 
-                    futures.add(future);
-                } else {
-                    // Process other statements directly
-                    // Create a temporary parent node
-                    IFTreeNode tempParent = new IFTreeNode(IFTreeNode.NodeType.TEMP, "temp");
+    /**
+     * 单次遍历构建控制流树。
+     * 所有PSI访问都发生在调用方的同一个读操作中，子节点直接挂到当前父节点上。
+     * 嵌套的语句不递归访问，而是作为任务压入显式的工作栈，栈深度与代码的嵌套层数无关。
+     * 每处理一条语句检查一次取消；新建节点数或耗时超过上限时停止并在根节点末尾加截断标记，
+     * 超过深度上限的分支替换为截断标记，含有截断的子树不会被记录复用。
+     * 每挂上一个节点就累计一次复杂度指标，复用的子树按记录时汇总好的指标计入，不再遍历。
+     * 新建的节点按创建顺序登记，子树被记录时由IfTreeInterner就地驻留，整批标签复制到一个字符串后仍以区间引用，
+     * 记录在PSI上的节点不会让快照一直留在内存里
+     */
+    private static class TreeBuilder extends JavaElementVisitor {
+        private final IFTreeNode root;
+        private final CharSequence source;
+        private final int maxNodes;
+        private final int maxDepth;
+        private final long deadline;
+        private IFTreeNode parent;
+        private int depth;
+        private int nodeCount;
+        private int truncations;
+        private final Deque<Task> work = new ArrayDeque<>();
+        // 当前语句访问过程中安排的子任务，访问结束后逆序压栈，保证按源码顺序处理
+        private final List<Task> pending = new ArrayList<>();
+        // 新建且标签尚未脱离文件快照的节点，按创建顺序排列
+        private final List<IFTreeNode> created = new ArrayList<>();
+        private final IfTreeInterner interner = IfTreeInterner.getInstance();
+        final IfTreeMetrics.Accumulator metrics = new IfTreeMetrics.Accumulator();
+
+        TreeBuilder(IFTreeNode root, CharSequence source, int maxNodes, int maxDepth, long timeoutMillis) {
+            this.root = root;
+            this.parent = root;
+            this.source = source;
+            this.maxNodes = maxNodes;
+            this.maxDepth = maxDepth;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            metrics.add(root.getType(), 0);
+        }
 
-                    // Wrap the PSI access in ReadAction
-                    ReadAction.run(() -> analyzeStatement(statement, tempParent));
+        void visitStatements(PsiStatement[] statements) {
+            schedule(statements, parent);
+            run();
+        }
 
-                    resultNodes.set(statementIndex, tempParent.getChildren().toArray(new IFTreeNode[0]));
+        private void run() {
+            flushPending();
+            int processed = 0;
+            while (!work.isEmpty()) {
+                ProgressManager.checkCanceled();
+                Task task = work.pop();
+                if (task.isMemo()) {
+                    remember(task);
+                    continue;
                 }
-            }
-
-            // Wait for all parallel tasks to complete
-            for (CompletableFuture<Void> future : futures) {
-                try {
-                    future.get();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                if (nodeCount >= maxNodes) {
+                    stop("node limit " + maxNodes);
+                    return;
                 }
-            }
-
-            // Add results to the parent node in original order
-            for (IFTreeNode[] nodes : resultNodes) {
-                if (nodes != null) {
-                    for (IFTreeNode node : nodes) {
-                        parentNode.addChild(node);
-                    }
+                if ((++processed & 0xFF) == 0 && System.nanoTime() > deadline) {
+                    stop("time limit");
+                    return;
                 }
-            }
-        } else {
-            // Process sequentially for fewer statements
-            for (PsiStatement statement : statements) {
-                // Wrap the PSI access in ReadAction
-                ReadAction.run(() -> analyzeStatement(statement, parentNode));
+                visit(task);
+                flushPending();
             }
         }
-    }
 
-    private void analyzeStatement(PsiStatement statement, IFTreeNode parentNode) {
-        if (statement instanceof PsiIfStatement) {
-            analyzeIfStatement((PsiIfStatement) statement, parentNode);
-        } else if (statement instanceof PsiWhileStatement) {
-            analyzeWhileStatement((PsiWhileStatement) statement, parentNode);
-        } else if (statement instanceof PsiDoWhileStatement) {
-            analyzeDoWhileStatement((PsiDoWhileStatement) statement, parentNode);
-        } else if (statement instanceof PsiForStatement) {
-            analyzeForStatement((PsiForStatement) statement, parentNode);
-        } else if (statement instanceof PsiForeachStatement) {
-            analyzeForeachStatement((PsiForeachStatement) statement, parentNode);
-        } else if (statement instanceof PsiSwitchStatement) {
-            analyzeSwitchStatement((PsiSwitchStatement) statement, parentNode);
-        } else if (statement instanceof PsiTryStatement) {
-            analyzeTryStatement((PsiTryStatement) statement, parentNode);
-        } else if (statement instanceof PsiBlockStatement) {
-            analyzeCodeBlock(((PsiBlockStatement) statement).getCodeBlock(), parentNode);
+        /**
+         * 放弃剩余的任务。尚未出栈的记录任务对应的子树不完整，也一并丢弃
+         */
+        private void stop(String reason) {
+            work.clear();
+            pending.clear();
+            root.addChild(new IFTreeNode(IFTreeNode.NodeType.TRUNCATED, "… analysis stopped: " + reason));
+            metrics.add(IFTreeNode.NodeType.TRUNCATED, 1);
         }
-    }
 
+        private void add(IFTreeNode node) {
+            addTo(parent, node, depth + 1);
+        }
 
-    private void analyzeIfStatement(PsiIfStatement ifStatement, IFTreeNode parentNode) {
-        ReadAction.run(()->
-        {
-            String condition = ifStatement.getCondition() != null ?
-                    ifStatement.getCondition().getText() : "no condition";
-
-            IFTreeNode ifNode = new IFTreeNode(IFTreeNode.NodeType.IF, "if (" + condition + ")");
-            parentNode.addChild(ifNode);
+        private void addTo(IFTreeNode target, IFTreeNode node, int nodeDepth) {
+            target.addChild(node);
+            created.add(node);
+            nodeCount++;
+            metrics.add(node.getType(), nodeDepth);
+        }
 
-            // Process then branch
-            if (ifStatement.getThenBranch() != null) {
-                analyzeBranch(ifStatement.getThenBranch(), ifNode);
+        private void flushPending() {
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                work.push(pending.get(i));
             }
+            pending.clear();
+        }
 
-            if (ifStatement.getElseBranch() != null) {
-                if (ifStatement.getElseBranch() instanceof PsiIfStatement) {
-                    PsiIfStatement elseIfStatement = (PsiIfStatement) ifStatement.getElseBranch();
-                    String elseIfCondition = elseIfStatement.getCondition() != null ?
-                            elseIfStatement.getCondition().getText() : "no condition";
-
-                    IFTreeNode elseIfNode = new IFTreeNode(IFTreeNode.NodeType.ELSE_IF,
-                            "else if (" + elseIfCondition + ")");
-                    parentNode.addChild(elseIfNode);
-
-                    if (elseIfStatement.getThenBranch() != null) {
-                        analyzeBranch(elseIfStatement.getThenBranch(), elseIfNode);
-                    }
+        /**
+         * 安排statement的节点挂到node下。挂到当前父节点下时深度不变，挂到刚创建的节点下时深度加一
+         */
+        private void schedule(@Nullable PsiStatement statement, IFTreeNode node) {
+            schedule(statement, node, node == parent ? depth : depth + 1);
+        }
 
-                    if (elseIfStatement.getElseBranch() != null) {
-                        if (elseIfStatement.getElseBranch() instanceof PsiIfStatement) {
-                            analyzeIfStatement((PsiIfStatement) elseIfStatement.getElseBranch(), parentNode);
-                        } else {
-                            IFTreeNode finalElseNode = new IFTreeNode(IFTreeNode.NodeType.ELSE, "else");
-                            parentNode.addChild(finalElseNode);
-                            analyzeBranch(elseIfStatement.getElseBranch(), finalElseNode);
-                        }
-                    }
-                } else {
-                    IFTreeNode elseNode = new IFTreeNode(IFTreeNode.NodeType.ELSE, "else");
-                    parentNode.addChild(elseNode);
-                    analyzeBranch(ifStatement.getElseBranch(), elseNode);
-                }
+        private void schedule(@Nullable PsiStatement statement, IFTreeNode node, int nodeDepth) {
+            if (statement != null) {
+                pending.add(new Task(statement, node, nodeDepth, -1, 0, 0));
             }
-        });
-    }
-
-    /**
-     * 分析while循环语句
-     */
-    private void analyzeWhileStatement(PsiWhileStatement whileStatement, IFTreeNode parentNode) {
-        ReadAction.run(()->{
-            // 1. 提取循环条件
-            String condition = whileStatement.getCondition() != null ?
-                    whileStatement.getCondition().getText() : "no condition";
-            // 2. 创建WHILE类型节点
-            IFTreeNode whileNode = new IFTreeNode(IFTreeNode.NodeType.WHILE, "while (" + condition + ")");
-            // 3. 添加到父节点
-            parentNode.addChild(whileNode);
-            // 4. 分析循环体内容
-            analyzeBranch(whileStatement.getBody(), whileNode);
-
-        });
-
-    }
-
-    /**
-     * 分析do-while循环语句
-     */
-    private void analyzeDoWhileStatement(PsiDoWhileStatement doWhileStatement, IFTreeNode parentNode) {
-        ReadAction.run(()->{
-            // 1. 提取循环条件
-            String condition = doWhileStatement.getCondition() != null ?
-                    doWhileStatement.getCondition().getText() : "no condition";
-
-            // 2. 创建DO_WHILE类型节点
-            IFTreeNode doWhileNode = new IFTreeNode(IFTreeNode.NodeType.DO_WHILE, "do-while (" + condition + ")");
-
-            // 3. 添加到父节点
-            parentNode.addChild(doWhileNode);
+        }
 
-            // 4. 分析循环体内容
-            if (doWhileStatement.getBody() != null) {
-                analyzeBranch(doWhileStatement.getBody(), doWhileNode);
+        private void schedule(PsiStatement[] statements, IFTreeNode node) {
+            for (PsiStatement statement : statements) {
+                schedule(statement, node);
             }
-        });
-
-    }
+        }
 
-    /**
-     * 分析for循环语句
-     */
-    private void analyzeForStatement(PsiForStatement forStatement, IFTreeNode parentNode) {
-        ReadAction.run(()->{
-            // 1. 提取初始化语句、条件和更新语句
-            StringBuilder forText = new StringBuilder("for (");
-
-            // 初始化部分
-            if (forStatement.getInitialization() != null) {
-                forText.append(forStatement.getInitialization().getText());
+        private void scheduleChildren(@Nullable PsiCodeBlock codeBlock, IFTreeNode node) {
+            if (codeBlock != null) {
+                schedule(codeBlock.getStatements(), node);
             }
+        }
 
-            // 条件部分
-            if (forStatement.getCondition() != null) {
-                forText.append(forStatement.getCondition().getText());
+        /**
+         * 访问一条语句，把它生成的节点追加到target。
+         * 控制流语句优先复用上次记录的子树；否则重新构建，并在它的所有子任务完成后记录下来
+         */
+        private void visit(Task task) {
+            PsiStatement statement = task.statement;
+            IFTreeNode target = task.parent;
+            parent = target;
+            depth = task.depth;
+            if (depth >= maxDepth) {
+                // 同一父节点下只放一个深度截断标记
+                List<IFTreeNode> siblings = target.getChildren();
+                if (siblings.isEmpty() || siblings.get(siblings.size() - 1).getType() != IFTreeNode.NodeType.TRUNCATED) {
+                    add(new IFTreeNode(IFTreeNode.NodeType.TRUNCATED, "… nested deeper than " + maxDepth + " levels"));
+                }
+                truncations++;
+                return;
             }
-            forText.append("; ");
-
-            // 更新部分
-            if (forStatement.getUpdate() != null) {
-                forText.append(forStatement.getUpdate().getText());
+            if (!(statement instanceof PsiIfStatement
+                    || statement instanceof PsiLoopStatement
+                    || statement instanceof PsiSwitchStatement
+                    || statement instanceof PsiTryStatement
+                    || statement instanceof PsiBlockStatement
+                    || statement instanceof PsiLabeledStatement
+                    || statement instanceof PsiSynchronizedStatement)) {
+                statement.accept(this);
+                return;
             }
-            forText.append(")");
-
-            // 2. 创建FOR类型节点
-            IFTreeNode forNode = new IFTreeNode(IFTreeNode.NodeType.FOR, forText.toString());
-
-            // 3. 添加到父节点
-            parentNode.addChild(forNode);
 
-            // 4. 分析循环体内容
-            if (forStatement.getBody() != null) {
-                analyzeBranch(forStatement.getBody(), forNode);
+            Memo cached = statement.getUserData(SUBTREE_KEY);
+            if (cached != null) {
+                for (IFTreeNode node : cached.nodes) {
+                    target.addChild(node);
+                }
+                metrics.addRelative(cached.metrics, depth);
+                return;
             }
-        });
 
-    }
+            // 记录任务压在子任务下面，出栈时这条语句的整个子树都已构建完成
+            work.push(new Task(statement, target, depth, target.getChildren().size(), truncations, created.size()));
+            metrics.open();
+            statement.accept(this);
+        }
 
-    /**
-     * 分析增强型for循环语句
-     */
-    private void analyzeForeachStatement(PsiForeachStatement foreachStatement, IFTreeNode parentNode) {
-        ReadAction.run(()->{
-            // 1. 提取迭代变量和集合表达式
-            StringBuilder foreachText = new StringBuilder("for (");
-
-            // 迭代变量
-            if (foreachStatement.getIterationParameter() != null) {
-                PsiParameter param = foreachStatement.getIterationParameter();
-                foreachText.append(param.getType().getPresentableText())
-                        .append(" ")
-                        .append(param.getName());
+        private void remember(Task task) {
+            IfTreeMetrics built = metrics.close(task.depth);
+            // 子树中出现过截断时不记录，避免把不完整的结果当作缓存复用
+            if (task.truncations != truncations) {
+                return;
             }
+            // 记录任务之后创建的节点都属于这条语句的子树，内层已记录的子树已经驻留并从列表中移除
+            intern(task.createdFrom, task.parent, task.memoFrom);
+            List<IFTreeNode> children = task.parent.getChildren();
+            IFTreeNode[] nodes = task.memoFrom == children.size() ? EMPTY_NODES :
+                    children.subList(task.memoFrom, children.size()).toArray(EMPTY_NODES);
+            task.statement.putUserData(SUBTREE_KEY, new Memo(nodes, built));
+        }
 
-            foreachText.append(" : ");
-
-            // 集合表达式
-            if (foreachStatement.getIteratedValue() != null) {
-                foreachText.append(foreachStatement.getIteratedValue().getText());
+        /**
+         * 驻留第from个之后新建的节点并把它们移出登记列表；
+         * target下从childFrom开始的子节点被池中的节点取代时一并替换
+         */
+        void intern(int from, IFTreeNode target, int childFrom) {
+            List<IFTreeNode> nodes = created.subList(from, created.size());
+            Map<IFTreeNode, IFTreeNode> replaced = interner.internNew(nodes);
+            nodes.clear();
+            if (replaced.isEmpty()) {
+                return;
+            }
+            List<IFTreeNode> children = target.getChildren();
+            for (int i = childFrom; i < children.size(); i++) {
+                IFTreeNode canonical = replaced.get(children.get(i));
+                if (canonical != null) {
+                    target.setChild(i, canonical);
+                }
             }
+        }
 
-            foreachText.append(")");
+        @Override
+        public void visitBlockStatement(@NotNull PsiBlockStatement statement) {
+            scheduleChildren(statement.getCodeBlock(), parent);
+        }
 
-            // 2. 创建FOR类型节点并特别标记为foreach
-            IFTreeNode foreachNode = new IFTreeNode(IFTreeNode.NodeType.FOR, foreachText.toString());
+        // 带标签的语句和同步块本身不生成节点，内部的控制流直接挂在当前父节点下
+        @Override
+        public void visitLabeledStatement(@NotNull PsiLabeledStatement statement) {
+            schedule(statement.getStatement(), parent);
+        }
 
-            // 3. 添加到父节点
-            parentNode.addChild(foreachNode);
+        @Override
+        public void visitSynchronizedStatement(@NotNull PsiSynchronizedStatement statement) {
+            scheduleChildren(statement.getBody(), parent);
+        }
 
-            // 4. 分析循环体内容
-            if (foreachStatement.getBody() != null) {
-                analyzeBranch(foreachStatement.getBody(), foreachNode);
+        @Override
+        public void visitIfStatement(@NotNull PsiIfStatement statement) {
+            IFTreeNode ifNode = rangeNode(IFTreeNode.NodeType.IF, statement.getCondition(), "if (no condition)");
+            add(ifNode);
+            schedule(statement.getThenBranch(), ifNode);
+
+            // else-if链在同一个循环里平铺为同级节点
+            PsiStatement elseBranch = statement.getElseBranch();
+            while (elseBranch instanceof PsiIfStatement) {
+                PsiIfStatement elseIfStatement = (PsiIfStatement) elseBranch;
+                IFTreeNode elseIfNode = rangeNode(IFTreeNode.NodeType.ELSE_IF, elseIfStatement.getCondition(),
+                        "else if (no condition)");
+                add(elseIfNode);
+                schedule(elseIfStatement.getThenBranch(), elseIfNode);
+                elseBranch = elseIfStatement.getElseBranch();
             }
-        });
 
-    }
+            if (elseBranch != null) {
+                IFTreeNode elseNode = new IFTreeNode(IFTreeNode.NodeType.ELSE, "else");
+                add(elseNode);
+                schedule(elseBranch, elseNode);
+            }
+        }
 
+        /**
+         * 分析while循环语句
+         */
+        @Override
+        public void visitWhileStatement(@NotNull PsiWhileStatement statement) {
+            IFTreeNode whileNode = rangeNode(IFTreeNode.NodeType.WHILE, statement.getCondition(), "while (no condition)");
+            add(whileNode);
+            schedule(statement.getBody(), whileNode);
+        }
 
-    /**
-     * 分析switch语句
-     */
-    private void analyzeSwitchStatement(PsiSwitchStatement switchStatement, IFTreeNode parentNode) {
-        ReadAction.run(() -> {
-            // 获取switch语句的选择器表达式
-            String expressionText = switchStatement.getExpression() != null ?
-                    switchStatement.getExpression().getText() : "no expression";
-
-            String switchText = "switch (" + expressionText + ")";
-            IFTreeNode switchNode = new IFTreeNode(IFTreeNode.NodeType.SWITCH, switchText);
-            parentNode.addChild(switchNode);
-
-            PsiCodeBlock body = switchStatement.getBody();
-            if (body != null) {
-                for (PsiSwitchLabelStatement label : PsiTreeUtil.findChildrenOfType(body, PsiSwitchLabelStatement.class)) {
-                    String caseText;
-                    if (label.isDefaultCase()) {
-                        caseText = "default:";
-                    } else {
-                        caseText = label.getText();
-                    }
+        /**
+         * 分析do-while循环语句
+         */
+        @Override
+        public void visitDoWhileStatement(@NotNull PsiDoWhileStatement statement) {
+            IFTreeNode doWhileNode = rangeNode(IFTreeNode.NodeType.DO_WHILE, statement.getCondition(),
+                    "do-while (no condition)");
+            add(doWhileNode);
+            schedule(statement.getBody(), doWhileNode);
+        }
+
+        /**
+         * 分析for循环语句
+         */
+        @Override
+        public void visitForStatement(@NotNull PsiForStatement statement) {
+            IFTreeNode forNode = betweenNode(IFTreeNode.NodeType.FOR, statement.getLParenth(), statement.getRParenth(),
+                    "for (;;)");
+            add(forNode);
+            schedule(statement.getBody(), forNode);
+        }
 
-                    IFTreeNode caseNode = new IFTreeNode(IFTreeNode.NodeType.CASE, caseText);
-                    switchNode.addChild(caseNode);
+        /**
+         * 分析增强型for循环语句
+         */
+        @Override
+        public void visitForeachStatement(@NotNull PsiForeachStatement statement) {
+            IFTreeNode foreachNode = betweenNode(IFTreeNode.NodeType.FOR, statement.getLParenth(), statement.getRParenth(),
+                    "for ( : )");
+            add(foreachNode);
+            schedule(statement.getBody(), foreachNode);
+        }
 
-                    PsiElement current = label.getNextSibling();
-                    while (current != null && !(current instanceof PsiSwitchLabelStatement)) {
-                        if (current instanceof PsiStatement) {
-                            analyzeStatement((PsiStatement) current, caseNode);
-                        }
-                        current = current.getNextSibling();
-                    }
-                }
+        /**
+         * 分析switch语句，同时支持传统的case:和增强型的case ->语法
+         */
+        @Override
+        public void visitSwitchStatement(@NotNull PsiSwitchStatement statement) {
+            IFTreeNode switchNode = rangeNode(IFTreeNode.NodeType.SWITCH, statement.getExpression(),
+                    "switch (no expression)");
+            add(switchNode);
+
+            PsiCodeBlock body = statement.getBody();
+            if (body == null) {
+                return;
+            }
 
-                // 处理增强型switch语句(使用->的语法)
-                for (PsiSwitchLabeledRuleStatement rule : PsiTreeUtil.findChildrenOfType(body, PsiSwitchLabeledRuleStatement.class)) {
-                    String caseText;
+            // 只遍历switch体的直接子语句，嵌套switch的标签留给嵌套的switch自己处理
+            IFTreeNode caseTarget = null;
+            for (PsiStatement child : body.getStatements()) {
+                if (child instanceof PsiSwitchLabeledRuleStatement) {
+                    PsiSwitchLabeledRuleStatement rule = (PsiSwitchLabeledRuleStatement) child;
+                    IFTreeNode caseNode;
+                    PsiCaseLabelElementList labelList = rule.getCaseLabelElementList();
                     if (rule.isDefaultCase()) {
-                        caseText = "default";
+                        caseNode = new IFTreeNode(IFTreeNode.NodeType.DEFAULT, "default");
+                    } else if (labelList != null) {
+                        // 从case关键字到最后一个标签，即"case A, B"
+                        int start = rule.getTextRange().getStartOffset();
+                        caseNode = new IFTreeNode(IFTreeNode.NodeType.CASE, source, start,
+                                labelList.getTextRange().getEndOffset() - start);
                     } else {
-                        PsiCaseLabelElementList labelList = rule.getCaseLabelElementList();
-                        if (labelList != null) {
-                            caseText = "case " + labelList.getText();
-                        } else {
-                            caseText = rule.getText();
-                        }
-                    }
-
-                    IFTreeNode caseNode = new IFTreeNode(IFTreeNode.NodeType.CASE, caseText);
-                    switchNode.addChild(caseNode);
-
-                    // 分析case分支的主体
-                    PsiStatement ruleBody = rule.getBody();
-                    if (ruleBody != null) {
-                        analyzeStatement(ruleBody, caseNode);
+                        caseNode = rangeNode(IFTreeNode.NodeType.CASE, rule, "case");
                     }
+                    addTo(switchNode, caseNode, depth + 2);
+                    schedule(rule.getBody(), caseNode, depth + 2);
+                } else if (child instanceof PsiSwitchLabelStatement) {
+                    PsiSwitchLabelStatement label = (PsiSwitchLabelStatement) child;
+                    IFTreeNode caseNode = label.isDefaultCase()
+                            ? new IFTreeNode(IFTreeNode.NodeType.DEFAULT, "default:")
+                            : rangeNode(IFTreeNode.NodeType.CASE, label, "case:");
+                    addTo(switchNode, caseNode, depth + 2);
+                    // 后续语句归属到这个case，直到遇到下一个标签
+                    caseTarget = caseNode;
+                } else if (caseTarget != null) {
+                    schedule(child, caseTarget, depth + 2);
                 }
             }
-        });
-    }
-
-
-
+        }
 
+        /**
+         * 分析try-catch-finally语句
+         */
+        @Override
+        public void visitTryStatement(@NotNull PsiTryStatement statement) {
+            IFTreeNode tryNode = rangeNode(IFTreeNode.NodeType.TRY, statement.getResourceList(), "try");
+            add(tryNode);
+            scheduleChildren(statement.getTryBlock(), tryNode);
 
-    /**
-     * 分析try-catch-finally语句
-     */
-    private void analyzeTryStatement(PsiTryStatement tryStatement, IFTreeNode parentNode) {
-        ReadAction.run(()->{
-            String tryText = "try";
-            if(tryStatement.getResourceList() != null){
-                tryText += tryStatement.getResourceList().getText();
-            }
-            IFTreeNode tryNode = new IFTreeNode(IFTreeNode.NodeType.TRY, tryText);
-            parentNode.addChild(tryNode);
-
-            // Analyze try block
-            PsiCodeBlock tryBlock = tryStatement.getTryBlock();
-            if (tryBlock != null) {
-                for (PsiStatement statement : tryBlock.getStatements()) {
-                    analyzeStatement(statement, tryNode);
-                }
-            }
-
-            PsiCatchSection[] catchSections = tryStatement.getCatchSections();
-            for (PsiCatchSection catchSection : catchSections) {
+            for (PsiCatchSection catchSection : statement.getCatchSections()) {
                 PsiParameter parameter = catchSection.getParameter();
-                if (parameter != null) {
-                    String catchText = "catch (" + parameter.getType().getPresentableText() + " " + parameter.getName() + ")";
-                    IFTreeNode catchNode = new IFTreeNode(IFTreeNode.NodeType.CATCH, catchText);
-                    parentNode.addChild(catchNode);
-
-                    PsiCodeBlock catchBlock = catchSection.getCatchBlock();
-                    if (catchBlock != null) {
-                        for (PsiStatement statement : catchBlock.getStatements()) {
-                            analyzeStatement(statement, catchNode);
-                        }
-                    }
+                if (parameter == null) {
+                    continue;
                 }
+                IFTreeNode catchNode = rangeNode(IFTreeNode.NodeType.CATCH, parameter, "catch ()");
+                add(catchNode);
+                scheduleChildren(catchSection.getCatchBlock(), catchNode);
             }
 
-
-            PsiCodeBlock finallyBlock = tryStatement.getFinallyBlock();
+            PsiCodeBlock finallyBlock = statement.getFinallyBlock();
             if (finallyBlock != null) {
                 IFTreeNode finallyNode = new IFTreeNode(IFTreeNode.NodeType.FINALLY, "finally");
-                parentNode.addChild(finallyNode);  // Add to parent, not tryNode
+                add(finallyNode);  // Add to parent, not tryNode
+                scheduleChildren(finallyBlock, finallyNode);
+            }
+        }
 
-                for (PsiStatement statement : finallyBlock.getStatements()) {
-                    analyzeStatement(statement, finallyNode);
-                }
+        /**
+         * 工作栈中的任务：把statement的节点追加到深度为depth的parent下。
+         * memoFrom不小于0时表示记录statement生成的子树，truncations和createdFrom为入栈时的截断次数和已登记的新节点数
+         */
+        private static final class Task {
+            final PsiStatement statement;
+            final IFTreeNode parent;
+            final int depth;
+            final int memoFrom;
+            final int truncations;
+            final int createdFrom;
+
+            Task(PsiStatement statement, IFTreeNode parent, int depth, int memoFrom, int truncations,
+                 int createdFrom) {
+                this.statement = statement;
+                this.parent = parent;
+                this.depth = depth;
+                this.memoFrom = memoFrom;
+                this.truncations = truncations;
+                this.createdFrom = createdFrom;
             }
-        });
 
-    }
+            boolean isMemo() {
+                return memoFrom >= 0;
+            }
+        }
 
+        /**
+         * 标签引用element在文件中的区间，element不存在时使用固定文本
+         */
+        private IFTreeNode rangeNode(IFTreeNode.NodeType type, @Nullable PsiElement element, String fallback) {
+            if (element == null) {
+                return new IFTreeNode(type, fallback);
+            }
+            TextRange range = element.getTextRange();
+            return new IFTreeNode(type, source, range.getStartOffset(), range.getLength());
+        }
 
-    private void analyzeBranch(PsiStatement branch, IFTreeNode parentNode) {
-        if (branch instanceof PsiBlockStatement) {
-            PsiCodeBlock codeBlock = ((PsiBlockStatement) branch).getCodeBlock();
-            analyzeCodeBlock(codeBlock, parentNode);
-        } else if (branch instanceof PsiIfStatement) {
-            analyzeIfStatement((PsiIfStatement) branch, parentNode);
-        } else if (branch instanceof PsiExpressionStatement) {
-        } else if (branch instanceof PsiWhileStatement) {
-            analyzeWhileStatement((PsiWhileStatement) branch, parentNode);
-        } else if (branch instanceof PsiForStatement) {
-            analyzeForStatement((PsiForStatement) branch, parentNode);
-        } else if (branch instanceof PsiForeachStatement) {
-            analyzeForeachStatement((PsiForeachStatement) branch, parentNode);
-        } else if (branch instanceof PsiDoWhileStatement) {
-            analyzeDoWhileStatement((PsiDoWhileStatement) branch, parentNode);
-        } else if (branch instanceof PsiSwitchStatement) {
-            analyzeSwitchStatement((PsiSwitchStatement) branch, parentNode);
-        } else if (branch instanceof  PsiTryStatement) {
-            analyzeTryStatement((PsiTryStatement) branch, parentNode);
-
-        } else {
-            analyzeStatement(branch, parentNode);
+        /**
+         * 标签引用两个括号之间的区间，括号不完整时使用固定文本
+         */
+        private IFTreeNode betweenNode(IFTreeNode.NodeType type, @Nullable PsiElement open, @Nullable PsiElement close,
+                                       String fallback) {
+            if (open == null || close == null) {
+                return new IFTreeNode(type, fallback);
+            }
+            int start = open.getTextRange().getEndOffset();
+            return new IFTreeNode(type, source, start, close.getTextRange().getStartOffset() - start);
         }
     }
-
-
 }
 
@@ -0,0 +1,203 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.LanguageLevelProjectExtension;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 批量分析多个文件中的所有方法。
+ * 以文件为单位交给 {@link StreamingMethodAnalyzer} 调度，并发数和在途文件数受限，结果逐个文件交出；
+ * 每个文件在一个可被写操作打断的读操作中完成，支持进度显示和取消。
+ * 已在编辑器中打开的文件使用PSI分析；其余文件优先读取 {@link ControlFlowSummaryIndex} 中的摘要，
+ * 索引不可用或不包含该文件时直接解析出LighterAST，不创建也不持有PSI
+ */
+public class BatchControlFlowAnalyzer {
+    private static final Logger LOG = Logger.getInstance(BatchControlFlowAnalyzer.class);
+    private static final String PARALLELISM_KEY = "visualizeif.batch.parallelism";
+
+    private final Project project;
+    private final AnalyzeIf analyzer = new AnalyzeIf();
+
+    public BatchControlFlowAnalyzer(@NotNull Project project) {
+        this.project = project;
+    }
+
+    /**
+     * 并行度默认为处理器数的一半，最多4个线程，避免占满IDE
+     */
+    public static int defaultParallelism() {
+        int configured = Registry.intValue(PARALLELISM_KEY, 0);
+        if (configured > 0) {
+            return configured;
+        }
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public List<MethodReport> analyze(@NotNull List<VirtualFile> files, @NotNull ProgressIndicator indicator) {
+        return analyze(files, indicator, defaultParallelism());
+    }
+
+    public List<MethodReport> analyze(@NotNull List<VirtualFile> files, @NotNull ProgressIndicator indicator,
+                                      int parallelism) {
+        Queue<MethodReport> reports = new ConcurrentLinkedQueue<>();
+        analyze(files, indicator, parallelism, reports::addAll);
+        return new ArrayList<>(reports);
+    }
+
+    /**
+     * 每分析完一个文件就把结果交给sink，不在内存中累积；sink会被多个线程同时调用。
+     * 单个文件分析失败或sink抛出异常时记录日志并继续处理其他文件，返回失败的文件数。
+     * indicator被取消时停止提交并打断正在进行的分析，抛出ProcessCanceledException
+     */
+    public int analyze(@NotNull List<VirtualFile> files, @NotNull ProgressIndicator indicator, int parallelism,
+                       @NotNull Consumer<? super List<MethodReport>> sink) {
+        AtomicInteger finished = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        int workers = Math.max(1, parallelism);
+        StreamingMethodAnalyzer.Handle handle = new StreamingMethodAnalyzer(workers, 2 * workers).analyze(files,
+                this::analyzeFile, new StreamingMethodAnalyzer.ItemListener<VirtualFile, List<MethodReport>>() {
+                    @Override
+                    public void onResult(@NotNull VirtualFile file, @NotNull List<MethodReport> reports) {
+                        try {
+                            sink.accept(reports);
+                        } catch (Throwable e) {
+                            onFailure(file, e);
+                            return;
+                        }
+                        progress(file);
+                    }
+
+                    @Override
+                    public void onFailure(@NotNull VirtualFile file, @NotNull Throwable error) {
+                        LOG.warn("Control flow analysis failed for " + file.getPresentableUrl(), error);
+                        failed.incrementAndGet();
+                        progress(file);
+                    }
+
+                    private void progress(VirtualFile file) {
+                        indicator.setText2(file.getPresentableUrl());
+                        indicator.setFraction((double) finished.incrementAndGet() / files.size());
+                    }
+                });
+        await(handle, indicator);
+        return failed.get();
+    }
+
+    /**
+     * 等待所有文件处理完，期间响应取消；indicator被取消时同时取消剩余的分析
+     */
+    private static void await(StreamingMethodAnalyzer.Handle handle, ProgressIndicator indicator) {
+        try {
+            while (true) {
+                indicator.checkCanceled();
+                try {
+                    handle.whenFinished().get(50, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    // 继续等待，同时响应取消
+                }
+            }
+        } catch (ProcessCanceledException e) {
+            handle.cancel();
+            throw e;
+        } catch (InterruptedException e) {
+            handle.cancel();
+            Thread.currentThread().interrupt();
+            throw new ProcessCanceledException(e);
+        } catch (ExecutionException e) {
+            // whenFinished只会正常完成
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 分析一个文件中的全部方法，遇到写操作时读操作会被取消并自动重试
+     */
+    List<MethodReport> analyzeFile(@NotNull VirtualFile file) {
+        if (file.getFileType() == JavaFileType.INSTANCE && !FileEditorManager.getInstance(project).isFileOpen(file)) {
+            return analyzeFileLight(file);
+        }
+        return analyzeFilePsi(file);
+    }
+
+    private List<MethodReport> analyzeFileLight(@NotNull VirtualFile file) {
+        return ReadAction.nonBlocking(() -> {
+            if (!file.isValid()) {
+                return Collections.<MethodReport>emptyList();
+            }
+            if (!DumbService.isDumb(project)) {
+                Map<String, IndexedMethodSummary> indexed = ControlFlowSummaryIndex.forFile(file, project);
+                if (!indexed.isEmpty()) {
+                    List<MethodReport> result = new ArrayList<>(indexed.size());
+                    for (Map.Entry<String, IndexedMethodSummary> entry : indexed.entrySet()) {
+                        result.add(MethodReport.of(entry.getKey(), entry.getValue(), file));
+                    }
+                    return result;
+                }
+            }
+            // 未保存的修改以Document为准
+            Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+            CharSequence text = document != null ? document.getImmutableCharSequence() : LoadTextUtil.loadText(file);
+            LighterAstAnalyzeIf analyzer =
+                    LighterAstAnalyzeIf.parse(project, text, LanguageLevelProjectExtension.getInstance(project).getLanguageLevel());
+            ProgressManager.checkCanceled();
+
+            List<MethodReport> result = new ArrayList<>();
+            for (LighterAstAnalyzeIf.MethodTree method : analyzer.analyzeFile()) {
+                result.add(MethodReport.of(method, file));
+            }
+            return result;
+        }).executeSynchronously();
+    }
+
+    private List<MethodReport> analyzeFilePsi(@NotNull VirtualFile file) {
+        return ReadAction.nonBlocking(() -> {
+            PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+            if (!(psiFile instanceof PsiJavaFile)) {
+                return Collections.<MethodReport>emptyList();
+            }
+
+            List<MethodReport> result = new ArrayList<>();
+            for (PsiMethod method : PsiTreeUtil.findChildrenOfType(psiFile, PsiMethod.class)) {
+                ProgressManager.checkCanceled();
+                if (method.getBody() == null) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                IFTreeNode tree = analyzer.analyze(method);
+                result.add(MethodReport.of(method, file, tree, System.nanoTime() - start));
+            }
+            return result;
+        }).executeSynchronously();
+    }
+}
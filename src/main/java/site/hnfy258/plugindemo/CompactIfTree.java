@@ -0,0 +1,179 @@
+package site.hnfy258.plugindemo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 控制流树的紧凑表示。
+ * 节点用下标表示，类型、父节点、第一个子节点、子节点数分别存放在并列的基本类型数组中，
+ * 遍历和渲染时不需要为每个节点创建对象。根节点的下标固定为0，-1表示不存在。
+ * 节点按层序排列，同一节点的子节点下标连续：取第i个子节点、子节点数、下一个兄弟和在父节点中的序号都是O(1)。
+ * 弹窗和查看器显示时由缓存中的节点树转换而来，同时记录原树的结构哈希和复杂度指标
+ */
+public final class CompactIfTree {
+    public static final int NONE = -1;
+
+    private static final IFTreeNode.NodeType[] TYPES = IFTreeNode.NodeType.values();
+
+    private final byte[] types;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] childCounts;
+    // 标签沿用IFTreeNode的引用方式：固定文本或文本中的区间，直接引用节点的文本，不复制
+    private final CharSequence[] labels;
+    private final int[] labelStarts;
+    private final int[] labelLengths;
+    private final long structuralHash;
+    private final IfTreeMetrics metrics;
+
+    private CompactIfTree(byte[] types, int[] parents, int[] firstChildren, int[] childCounts,
+                          CharSequence[] labels, int[] labelStarts, int[] labelLengths,
+                          long structuralHash, IfTreeMetrics metrics) {
+        this.types = types;
+        this.parents = parents;
+        this.firstChildren = firstChildren;
+        this.childCounts = childCounts;
+        this.labels = labels;
+        this.labelStarts = labelStarts;
+        this.labelLengths = labelLengths;
+        this.structuralHash = structuralHash;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 按层序遍历把节点树压平到数组中。驻留池共享的子树在每个出现的位置各展开一次
+     */
+    public static CompactIfTree of(IFTreeNode root) {
+        // 层序排列：列表同时充当队列，每个节点的子节点依次追加在末尾，下标即为最终位置
+        List<IFTreeNode> order = new ArrayList<>();
+        order.add(root);
+        for (int i = 0; i < order.size(); i++) {
+            order.addAll(order.get(i).getChildren());
+        }
+
+        int size = order.size();
+        byte[] types = new byte[size];
+        int[] parents = new int[size];
+        int[] firstChildren = new int[size];
+        int[] childCounts = new int[size];
+        CharSequence[] labels = new CharSequence[size];
+        int[] labelStarts = new int[size];
+        int[] labelLengths = new int[size];
+
+        parents[0] = NONE;
+        int next = 1;
+        for (int index = 0; index < size; index++) {
+            IFTreeNode node = order.get(index);
+            types[index] = (byte) node.getType().ordinal();
+            labels[index] = node.getLabelSource();
+            labelStarts[index] = node.getLabelStart();
+            labelLengths[index] = node.getLabelLength();
+
+            int count = node.getChildren().size();
+            firstChildren[index] = count == 0 ? NONE : next;
+            childCounts[index] = count;
+            for (int child = next; child < next + count; child++) {
+                parents[child] = index;
+            }
+            next += count;
+        }
+
+        return new CompactIfTree(types, parents, firstChildren, childCounts, labels, labelStarts, labelLengths,
+                root.getStructuralHash(), root.getMetrics());
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    public int getRoot() {
+        return 0;
+    }
+
+    public IFTreeNode.NodeType getType(int node) {
+        return TYPES[types[node]];
+    }
+
+    public String getText(int node) {
+        return getText(node, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 生成标签文本，超过maxLength个字符时截断并以省略号结尾
+     */
+    public String getText(int node, int maxLength) {
+        StringBuilder builder = new StringBuilder();
+        IFTreeNode.appendLabel(builder, getType(node), labels[node], labelStarts[node], labelLengths[node],
+                maxLength);
+        return builder.toString();
+    }
+
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int getNextSibling(int node) {
+        int parent = parents[node];
+        if (parent == NONE || node + 1 == firstChildren[parent] + childCounts[parent]) {
+            return NONE;
+        }
+        return node + 1;
+    }
+
+    public int getChildCount(int node) {
+        return childCounts[node];
+    }
+
+    /**
+     * 第index个子节点
+     */
+    public int getChild(int node, int index) {
+        return firstChildren[node] + index;
+    }
+
+    /**
+     * 在父节点的子节点中的序号，根节点返回-1
+     */
+    public int getIndexInParent(int node) {
+        int parent = parents[node];
+        return parent == NONE ? NONE : node - firstChildren[parent];
+    }
+
+    /**
+     * 与原树根节点的 {@link IFTreeNode#getStructuralHash()} 相同
+     */
+    public long getStructuralHash() {
+        return structuralHash;
+    }
+
+    /**
+     * 原树的复杂度指标
+     */
+    public IfTreeMetrics getMetrics() {
+        return metrics;
+    }
+
+    CharSequence getLabelSource(int node) {
+        return labels[node];
+    }
+
+    int getLabelStart(int node) {
+        return labelStarts[node];
+    }
+
+    int getLabelLength(int node) {
+        return labelLengths[node];
+    }
+
+    /**
+     * 与 {@link IFTreeNode#toString()} 输出相同的HTML
+     */
+    @Override
+    public String toString() {
+        return IfTreeHtmlRenderer.render(this);
+    }
+}
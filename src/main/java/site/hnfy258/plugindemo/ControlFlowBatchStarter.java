@@ -0,0 +1,255 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.ide.impl.OpenProjectTask;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.application.ex.ApplicationEx;
+import com.intellij.openapi.application.ex.ApplicationManagerEx;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ex.ProjectManagerEx;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.TimeoutUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 无界面的批量控制流分析，供CI使用：
+ * <pre>
+ * idea visualizeif-batch &lt;项目路径&gt; [--output=结果文件] [--workers=N] [--max-depth=N] [--max-branches=N] [--timeout=秒]
+ * </pre>
+ * 每个方法一行写入结果文件（制表符分隔），truncated列标出分析被截断、指标只是下限的方法。
+ * 退出码：0 通过，1 超过阈值，2 参数或运行错误、有文件分析或写出失败，3 超时
+ */
+public class ControlFlowBatchStarter implements ApplicationStarter {
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_THRESHOLD_EXCEEDED = 1;
+    private static final int EXIT_ERROR = 2;
+    private static final int EXIT_TIMEOUT = 3;
+
+    private Path projectPath;
+    private Path outputPath = Paths.get("control-flow-report.tsv");
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int maxDepth = Integer.MAX_VALUE;
+    private int maxBranches = Integer.MAX_VALUE;
+    private long timeoutSeconds;
+    private Project project;
+
+    @Override
+    public int getRequiredModality() {
+        // 打开项目、等待索引都是阻塞操作，不能在EDT上执行
+        return ApplicationStarter.NOT_IN_EDT;
+    }
+
+    @Override
+    public void main(@NotNull List<String> args) {
+        int exitCode;
+        try {
+            if (!parseArgs(args)) {
+                System.err.println("Usage: visualizeif-batch <project-path> [--output=file] [--workers=N] "
+                        + "[--max-depth=N] [--max-branches=N] [--timeout=seconds]");
+                exitCode = EXIT_ERROR;
+            } else {
+                exitCode = run();
+            }
+        } catch (Throwable e) {
+            e.printStackTrace(System.err);
+            exitCode = EXIT_ERROR;
+        }
+        exit(exitCode);
+    }
+
+    /**
+     * 关闭项目后通过应用退出，保存索引等状态并正常释放资源，而不是直接结束JVM
+     */
+    private void exit(int exitCode) {
+        Project opened = project;
+        if (opened != null && !opened.isDisposed()) {
+            ApplicationManager.getApplication().invokeAndWait(
+                    () -> ProjectManagerEx.getInstanceEx().forceCloseProject(opened));
+        }
+        ApplicationManagerEx.getApplicationEx().exit(ApplicationEx.FORCE_EXIT | ApplicationEx.EXIT_CONFIRMED, exitCode);
+    }
+
+    private boolean parseArgs(List<String> args) {
+        // 第一个参数是命令名
+        for (String arg : args.subList(1, args.size())) {
+            try {
+                if (arg.startsWith("--output=")) {
+                    outputPath = Paths.get(value(arg));
+                } else if (arg.startsWith("--workers=")) {
+                    workers = Math.max(1, Integer.parseInt(value(arg)));
+                } else if (arg.startsWith("--max-depth=")) {
+                    maxDepth = Integer.parseInt(value(arg));
+                } else if (arg.startsWith("--max-branches=")) {
+                    maxBranches = Integer.parseInt(value(arg));
+                } else if (arg.startsWith("--timeout=")) {
+                    timeoutSeconds = Long.parseLong(value(arg));
+                } else if (!arg.startsWith("--") && projectPath == null) {
+                    projectPath = Paths.get(arg).toAbsolutePath().normalize();
+                } else {
+                    System.err.println("Unknown argument: " + arg);
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid number in argument: " + arg);
+                return false;
+            }
+        }
+        return projectPath != null;
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    private int run() throws IOException {
+        // 超时从启动开始计算，打开项目和等待索引也算在内
+        EmptyProgressIndicator indicator = new EmptyProgressIndicator();
+        ScheduledFuture<?> timeout = timeoutSeconds > 0
+                ? AppExecutorUtil.getAppScheduledExecutorService().schedule(indicator::cancel, timeoutSeconds, TimeUnit.SECONDS)
+                : null;
+
+        AtomicInteger methods = new AtomicInteger();
+        AtomicInteger truncated = new AtomicInteger();
+        List<String> violations = new ArrayList<>();
+        List<VirtualFile> files;
+        int failedFiles;
+        long start;
+        try {
+            // 在后台线程打开项目，这里只等待结果，超时后不再等下去
+            project = ProgressIndicatorUtils.awaitWithCheckCanceled(AppExecutorUtil.getAppExecutorService().submit(
+                    () -> ProjectManagerEx.getInstanceEx().openProject(projectPath, OpenProjectTask.build())), indicator);
+            if (project == null) {
+                System.err.println("Cannot open project: " + projectPath);
+                return EXIT_ERROR;
+            }
+            waitForSmartMode(project, indicator);
+            files = collectSourceFiles(project);
+            System.out.println("Analyzing " + files.size() + " Java files with " + workers + " workers");
+            start = System.nanoTime();
+            failedFiles = analyze(project, files, indicator, methods, truncated, violations);
+        } catch (ProcessCanceledException e) {
+            System.err.println("Analysis did not finish within " + timeoutSeconds + " seconds");
+            return EXIT_TIMEOUT;
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+
+        System.out.printf("Analyzed %d methods in %d ms, results written to %s%n", methods.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), outputPath.toAbsolutePath());
+        if (truncated.get() > 0) {
+            System.out.println(truncated.get() + " methods hit the analysis limits, their metrics are lower bounds");
+        }
+        if (!violations.isEmpty()) {
+            System.err.println(violations.size() + " methods exceed the configured thresholds:");
+            violations.forEach(System.err::println);
+        }
+        // 分析失败的文件没有结果，报告不完整，优先于阈值检查
+        if (failedFiles > 0) {
+            System.err.println(failedFiles + " of " + files.size() + " files could not be analyzed or written, "
+                    + "see idea.log for details");
+            return EXIT_ERROR;
+        }
+        return violations.isEmpty() ? EXIT_OK : EXIT_THRESHOLD_EXCEEDED;
+    }
+
+    /**
+     * 等待索引完成，indicator被取消时抛出ProcessCanceledException
+     */
+    private static void waitForSmartMode(Project project, EmptyProgressIndicator indicator) {
+        DumbService dumbService = DumbService.getInstance(project);
+        while (dumbService.isDumb()) {
+            indicator.checkCanceled();
+            TimeoutUtil.sleep(100);
+        }
+    }
+
+    /**
+     * 分析所有文件并逐个写出结果，返回分析或写出失败的文件数
+     */
+    private int analyze(Project project, List<VirtualFile> files, EmptyProgressIndicator indicator,
+                        AtomicInteger methods, AtomicInteger truncated, List<String> violations) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
+            writer.write("file\tclass\tmethod\tdepth\tbranches\tnodes\tmillis\ttruncated");
+            writer.newLine();
+
+            // 每个文件的结果分析完就写出，多个工作线程共用一个writer
+            return new BatchControlFlowAnalyzer(project).analyze(files, indicator, workers, reports -> {
+                synchronized (writer) {
+                    for (MethodReport report : reports) {
+                        writeReport(writer, report);
+                        methods.incrementAndGet();
+                        if (report.isTruncated()) {
+                            truncated.incrementAndGet();
+                        }
+                        String violation = checkThresholds(report);
+                        if (violation != null) {
+                            violations.add(violation);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 收集项目所有源码根（包括测试源码）下的Java文件
+     */
+    private static List<VirtualFile> collectSourceFiles(Project project) {
+        return ReadAction.compute(() -> {
+            ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+            List<VirtualFile> files = new ArrayList<>();
+            fileIndex.iterateContent(file -> {
+                files.add(file);
+                return true;
+            }, file -> !file.isDirectory() && file.getFileType() == JavaFileType.INSTANCE
+                    && fileIndex.isInSourceContent(file));
+            return files;
+        });
+    }
+
+    private static void writeReport(BufferedWriter writer, MethodReport report) {
+        IfTreeMetrics metrics = report.getMetrics();
+        try {
+            writer.write(report.getFile().getPath() + '\t' + report.getClassName() + '\t' + report.getMethodName()
+                    + '\t' + metrics.getMaxDepth() + '\t' + metrics.getBranchCount() + '\t' + metrics.getNodeCount()
+                    + '\t' + (report.isMeasured() ? String.valueOf(TimeUnit.NANOSECONDS.toMillis(report.getAnalysisNanos())) : "")
+                    + '\t' + report.isTruncated());
+            writer.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String checkThresholds(MethodReport report) {
+        IfTreeMetrics metrics = report.getMetrics();
+        if (metrics.getMaxDepth() <= maxDepth && metrics.getBranchCount() <= maxBranches) {
+            return null;
+        }
+        return "  " + report.getClassName() + "#" + report.getMethodName() + " (depth " + metrics.getMaxDepth()
+                + ", branches " + metrics.getBranchCount() + (report.isTruncated() ? ", truncated" : "") + ") in "
+                + report.getFile().getPath();
+    }
+}
@@ -0,0 +1,282 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.lang.LighterAST;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 条件、switch选择表达式、case标签和catch参数的倒排索引。
+ * 键为标签中出现的标识符（小写），值为该文件中含有这个词的分支节点的类型和范围。
+ * 与 {@link ControlFlowSummaryIndex} 一样基于LighterAST在后台建立，文件修改后由平台增量更新
+ */
+public class ControlFlowConditionIndex extends FileBasedIndexExtension<String, List<IndexedCondition>> {
+    public static final ID<String, List<IndexedCondition>> NAME = ID.create("visualizeif.controlFlowConditions");
+
+    private static final Set<IFTreeNode.NodeType> INDEXED_TYPES = EnumSet.of(
+            IFTreeNode.NodeType.IF, IFTreeNode.NodeType.ELSE_IF, IFTreeNode.NodeType.WHILE,
+            IFTreeNode.NodeType.DO_WHILE, IFTreeNode.NodeType.FOR, IFTreeNode.NodeType.SWITCH,
+            IFTreeNode.NodeType.CASE, IFTreeNode.NodeType.CATCH);
+    // 出现得太普遍、单独搜索没有意义的关键字和字面量不建索引
+    private static final Set<String> IGNORED_WORDS = Set.of(
+            "null", "true", "false", "this", "super", "new", "instanceof", "final", "var", "case", "default");
+
+    @Override
+    public @NotNull ID<String, List<IndexedCondition>> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, List<IndexedCondition>, FileContent> getIndexer() {
+        return inputData -> {
+            LighterAST tree = ((PsiDependentFileContent) inputData).getLighterAST();
+            List<LighterAstAnalyzeIf.MethodTree> methods =
+                    new LighterAstAnalyzeIf(tree, inputData.getContentAsText()).analyzeFile();
+            if (methods.isEmpty()) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, List<IndexedCondition>> result = new HashMap<>();
+            Deque<IFTreeNode> stack = new ArrayDeque<>();
+            for (LighterAstAnalyzeIf.MethodTree method : methods) {
+                stack.push(method.getTree());
+                while (!stack.isEmpty()) {
+                    IFTreeNode node = stack.pop();
+                    for (IFTreeNode child : node.getChildren()) {
+                        stack.push(child);
+                    }
+                    int start = node.getLabelStart();
+                    if (start < 0 || !INDEXED_TYPES.contains(node.getType())) {
+                        continue;
+                    }
+                    Set<String> words = words(node.getLabelSource(), start, start + node.getLabelLength());
+                    if (words.isEmpty()) {
+                        continue;
+                    }
+                    IndexedCondition condition = new IndexedCondition(node.getType(), start, node.getLabelLength());
+                    for (String word : words) {
+                        result.computeIfAbsent(word, k -> new ArrayList<>()).add(condition);
+                    }
+                }
+            }
+            // 按位置排序后位置可以差值存储
+            for (List<IndexedCondition> conditions : result.values()) {
+                conditions.sort(Comparator.comparingInt(IndexedCondition::getOffset));
+            }
+            return result;
+        };
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<List<IndexedCondition>> getValueExternalizer() {
+        return new IndexedCondition.ListExternalizer();
+    }
+
+    @Override
+    public int getVersion() {
+        return 2;
+    }
+
+    @Override
+    public FileBasedIndex.@NotNull InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(JavaFileType.INSTANCE);
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    /**
+     * 一条搜索结果，标签文本和所在方法在查询时取出
+     */
+    public static final class Hit {
+        private final VirtualFile file;
+        private final IndexedCondition condition;
+        private final String text;
+        private final String method;
+
+        Hit(VirtualFile file, IndexedCondition condition, String text, String method) {
+            this.file = file;
+            this.condition = condition;
+            this.text = text;
+            this.method = method;
+        }
+
+        public VirtualFile getFile() {
+            return file;
+        }
+
+        public IndexedCondition getCondition() {
+            return condition;
+        }
+
+        /**
+         * 带节点类型前后缀的完整标签，如 if (x == null)
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * 所在方法的签名，索引中找不到时为空串
+         */
+        public String getMethod() {
+            return method;
+        }
+    }
+
+    /**
+     * 查找标签中含有query里所有标识符的分支节点，query中有标识符以外的字符（如 flags.isEnabled(）时
+     * 还要求标签在忽略大小写和空白后包含整个query，比较的是文件中索引记录的完整范围。
+     * 需要在读操作且非dumb模式下调用
+     */
+    public static List<Hit> search(@NotNull Project project, @NotNull String query, @NotNull GlobalSearchScope scope,
+                                   int limit) {
+        Set<String> words = words(query, 0, query.length());
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // 按第一个词取出候选，其余的词逐个求交集
+        FileBasedIndex index = FileBasedIndex.getInstance();
+        Map<VirtualFile, Map<Integer, IndexedCondition>> candidates = null;
+        for (String word : words) {
+            ProgressManager.checkCanceled();
+            Map<VirtualFile, Map<Integer, IndexedCondition>> found = new LinkedHashMap<>();
+            Map<VirtualFile, Map<Integer, IndexedCondition>> previous = candidates;
+            index.processValues(NAME, word, null, (file, conditions) -> {
+                Map<Integer, IndexedCondition> allowed = previous == null ? null : previous.get(file);
+                if (previous != null && allowed == null) {
+                    return true;
+                }
+                for (IndexedCondition condition : conditions) {
+                    if (allowed == null || allowed.containsKey(condition.getOffset())) {
+                        found.computeIfAbsent(file, f -> new LinkedHashMap<>()).put(condition.getOffset(), condition);
+                    }
+                }
+                return true;
+            }, scope);
+            candidates = found;
+            if (candidates.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+
+        // 只由标识符和空白组成的query只要求含有所有的词，不要求词的顺序和相邻
+        String normalizedQuery = isWordsOnly(query) ? null : normalize(query);
+        List<Hit> result = new ArrayList<>();
+        for (Map.Entry<VirtualFile, Map<Integer, IndexedCondition>> entry : candidates.entrySet()) {
+            ProgressManager.checkCanceled();
+            VirtualFile file = entry.getKey();
+            // 索引包含未保存的修改，文本以Document为准
+            Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+            CharSequence content = document != null ? document.getImmutableCharSequence() : LoadTextUtil.loadText(file);
+            Map<String, IndexedMethodSummary> methods = null;
+            for (IndexedCondition condition : entry.getValue().values()) {
+                String text = condition.getText(content);
+                if (text == null || normalizedQuery != null && !normalize(text).contains(normalizedQuery)) {
+                    continue;
+                }
+                if (methods == null) {
+                    methods = ControlFlowSummaryIndex.forFile(file, project);
+                }
+                result.add(new Hit(file, condition, text, methodAt(methods, condition.getOffset())));
+                if (result.size() >= limit) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 包含offset的最内层方法的签名，去掉重复签名的序号
+     */
+    private static String methodAt(Map<String, IndexedMethodSummary> methods, int offset) {
+        String found = "";
+        int foundOffset = -1;
+        for (Map.Entry<String, IndexedMethodSummary> entry : methods.entrySet()) {
+            IndexedMethodSummary method = entry.getValue();
+            if (method.getOffset() <= offset && offset < method.getEndOffset() && method.getOffset() > foundOffset) {
+                found = entry.getKey();
+                foundOffset = method.getOffset();
+            }
+        }
+        int paren = found.indexOf(')');
+        return paren < 0 ? found : found.substring(0, paren + 1);
+    }
+
+    /**
+     * 文本中出现的标识符，统一为小写，去掉常见关键字
+     */
+    static Set<String> words(CharSequence text, int start, int end) {
+        Set<String> words = new LinkedHashSet<>();
+        int i = start;
+        while (i < end) {
+            if (!Character.isJavaIdentifierStart(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int wordStart = i;
+            while (i < end && Character.isJavaIdentifierPart(text.charAt(i))) {
+                i++;
+            }
+            String word = StringUtil.toLowerCase(text.subSequence(wordStart, i).toString());
+            if (!IGNORED_WORDS.contains(word)) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static boolean isWordsOnly(String query) {
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (!Character.isWhitespace(c) && !Character.isJavaIdentifierPart(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalize(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                builder.append(Character.toLowerCase(c));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,239 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.registry.Registry;
+import org.jetbrains.annotations.NotNull;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 各阶段耗时的直方图、缓存命中情况和慢分析记录。
+ * 记录只做几次原子累加，可以在分析的热路径上调用；超过阈值（visualizeif.diagnostics.slowAnalysisMs）的分析会写入日志
+ */
+public final class ControlFlowDiagnostics {
+    private static final Logger LOG = Logger.getInstance(ControlFlowDiagnostics.class);
+    private static final String SLOW_ANALYSIS_KEY = "visualizeif.diagnostics.slowAnalysisMs";
+    private static final int DEFAULT_SLOW_ANALYSIS_MS = 500;
+    private static final int MAX_SLOW_ENTRIES = 50;
+
+    public enum Stage {
+        PSI_SCAN("PSI traversal (gutter summary)"),
+        TREE_BUILD("Tree build (AnalyzeIf)"),
+        BACKGROUND_BUILD("Tree build (prewarm, speculative)"),
+        RENDER("Render (tree view model)"),
+        UI_DISPLAY("UI display (dialog)"),
+        CLICK_TO_POPUP("Gutter click to popup");
+
+        private final String displayName;
+
+        Stage(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    private final Map<Stage, Histogram> histograms = new EnumMap<>(Stage.class);
+    private final Deque<String> slowAnalyses = new ArrayDeque<>();
+    private volatile long resetTime = System.currentTimeMillis();
+
+    public ControlFlowDiagnostics() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new Histogram());
+        }
+    }
+
+    public static ControlFlowDiagnostics getInstance() {
+        return ApplicationManager.getApplication().getService(ControlFlowDiagnostics.class);
+    }
+
+    public void record(@NotNull Stage stage, long nanos) {
+        histograms.get(stage).record(nanos);
+    }
+
+    /**
+     * 记录一次方法分析的耗时，超过阈值时写日志并保留在最近的慢分析列表中；方法描述只在需要时生成
+     */
+    public void recordAnalysis(@NotNull Supplier<String> method, long nanos) {
+        recordAnalysis(Stage.TREE_BUILD, method, nanos);
+    }
+
+    /**
+     * 按阶段记录分析耗时。预热和预测性分析记在BACKGROUND_BUILD下，不计入慢分析列表，
+     * 它们和前台分析争用CPU，耗时不代表用户等待的时间
+     */
+    public void recordAnalysis(@NotNull Stage stage, @NotNull Supplier<String> method, long nanos) {
+        record(stage, nanos);
+        if (stage != Stage.TREE_BUILD) {
+            return;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        if (millis < Registry.intValue(SLOW_ANALYSIS_KEY, DEFAULT_SLOW_ANALYSIS_MS)) {
+            return;
+        }
+        String description = method.get();
+        String entry = new SimpleDateFormat("HH:mm:ss").format(new Date()) + "  " + millis + " ms  " + description;
+        LOG.warn("Slow control flow analysis: " + description + " took " + millis + " ms");
+        synchronized (slowAnalyses) {
+            if (slowAnalyses.size() == MAX_SLOW_ENTRIES) {
+                slowAnalyses.removeFirst();
+            }
+            slowAnalyses.addLast(entry);
+        }
+    }
+
+    public void reset() {
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        synchronized (slowAnalyses) {
+            slowAnalyses.clear();
+        }
+        resetTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 生成文本报告，诊断面板和导出文件共用
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append("VisualizeIF diagnostics since ")
+                .append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(resetTime))).append("\n\n");
+
+        out.append(String.format("%-32s %8s %10s %10s %10s %10s %10s%n",
+                "Stage", "Count", "Mean ms", "P50 ms", "P90 ms", "P99 ms", "Max ms"));
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = histograms.get(stage);
+            out.append(String.format("%-32s %8d %10.2f %10s %10s %10s %10.2f%n", stage.displayName,
+                    histogram.getCount(), histogram.getMeanMillis(), histogram.percentile(0.5),
+                    histogram.percentile(0.9), histogram.percentile(0.99), histogram.getMaxMillis()));
+        }
+
+        out.append("\nHistograms (upper bound ms: count)\n");
+        for (Stage stage : Stage.values()) {
+            out.append(String.format("%-32s ", stage.displayName)).append(histograms.get(stage).bucketsToString()).append('\n');
+        }
+
+        out.append("\nTree caches\n");
+        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+            IfTreeCacheService cache = project.isDisposed() ? null : project.getServiceIfCreated(IfTreeCacheService.class);
+            if (cache != null) {
+                out.append("  ").append(project.getName()).append(": ").append(cache.getStats()).append('\n');
+            }
+        }
+        out.append("  shared subtrees: ").append(IfTreeInterner.getInstance().getSubtreeCount()).append('\n');
+        PlantUmlDiagramService diagrams = ApplicationManager.getApplication().getServiceIfCreated(PlantUmlDiagramService.class);
+        if (diagrams != null) {
+            out.append("  diagrams: ").append(diagrams.getStats()).append('\n');
+        }
+
+        out.append("\nSlow analyses (threshold ").append(Registry.intValue(SLOW_ANALYSIS_KEY, DEFAULT_SLOW_ANALYSIS_MS))
+                .append(" ms, most recent last)\n");
+        List<String> slow;
+        synchronized (slowAnalyses) {
+            slow = new ArrayList<>(slowAnalyses);
+        }
+        if (slow.isEmpty()) {
+            out.append("  none\n");
+        }
+        for (String entry : slow) {
+            out.append("  ").append(entry).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * 按毫秒分桶的耗时直方图，分位数取所在桶的上界
+     */
+    static final class Histogram {
+        private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS_MILLIS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BOUNDS_MILLIS.length && millis >= BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            count.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1_000_000.0 / n;
+        }
+
+        double getMaxMillis() {
+            return maxNanos.get() / 1_000_000.0;
+        }
+
+        String percentile(double fraction) {
+            long n = count.sum();
+            if (n == 0) {
+                return "-";
+            }
+            long target = (long) Math.ceil(n * fraction);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= target) {
+                    return "<" + BOUNDS_MILLIS[i];
+                }
+            }
+            return ">=" + BOUNDS_MILLIS[BOUNDS_MILLIS.length - 1];
+        }
+
+        String bucketsToString() {
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < buckets.length; i++) {
+                long value = buckets[i].sum();
+                if (value == 0) {
+                    continue;
+                }
+                if (out.length() > 0) {
+                    out.append(", ");
+                }
+                out.append(i < BOUNDS_MILLIS.length ? "<" + BOUNDS_MILLIS[i] : "inf").append(": ").append(value);
+            }
+            return out.length() == 0 ? "-" : out.toString();
+        }
+    }
+}
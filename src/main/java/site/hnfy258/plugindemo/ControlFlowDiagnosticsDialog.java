@@ -0,0 +1,96 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.components.JBTextArea;
+import com.intellij.util.ui.JBFont;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * 诊断面板：显示各阶段耗时、缓存命中率和慢分析记录，可以刷新、清零或导出到文件
+ */
+public class ControlFlowDiagnosticsDialog extends DialogWrapper {
+    private final Project project;
+    private final JBTextArea textArea = new JBTextArea();
+
+    public ControlFlowDiagnosticsDialog(@Nullable Project project) {
+        super(project, true, IdeModalityType.MODELESS);
+        this.project = project;
+        setTitle("VisualizeIF 诊断信息");
+        setOKButtonText("关闭");
+        init();
+        refresh();
+    }
+
+    private void refresh() {
+        textArea.setText(ControlFlowDiagnostics.getInstance().dump());
+        textArea.setCaretPosition(0);
+    }
+
+    @Override
+    protected @Nullable JComponent createCenterPanel() {
+        textArea.setEditable(false);
+        textArea.setFont(JBFont.create(new Font(Font.MONOSPACED, Font.PLAIN, 12)));
+        JBScrollPane scrollPane = new JBScrollPane(textArea);
+        scrollPane.setPreferredSize(new Dimension(900, 500));
+        return scrollPane;
+    }
+
+    @Override
+    protected Action @NotNull [] createLeftSideActions() {
+        return new Action[]{
+                new AbstractAction("刷新") {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        refresh();
+                    }
+                },
+                new AbstractAction("清零") {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        ControlFlowDiagnostics.getInstance().reset();
+                        refresh();
+                    }
+                },
+                new AbstractAction("导出...") {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        saveToFile();
+                    }
+                }
+        };
+    }
+
+    @Override
+    protected Action @NotNull [] createActions() {
+        return new Action[]{getOKAction()};
+    }
+
+    private void saveToFile() {
+        VirtualFileWrapper target = FileChooserFactory.getInstance()
+                .createSaveFileDialog(new FileSaverDescriptor("导出诊断信息", "", "txt"), project)
+                .save("visualizeif-diagnostics.txt");
+        if (target == null) {
+            return;
+        }
+        try {
+            Files.write(target.getFile().toPath(),
+                    ControlFlowDiagnostics.getInstance().dump().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            Messages.showErrorDialog(project, "无法写入文件: " + ex.getMessage(), "导出失败");
+        }
+    }
+}
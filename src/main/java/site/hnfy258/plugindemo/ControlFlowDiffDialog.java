@@ -0,0 +1,102 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.ui.ColoredTreeCellRenderer;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.treeStructure.Tree;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreeNode;
+import javax.swing.tree.TreePath;
+import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Enumeration;
+
+/**
+ * 以树形显示两个版本之间的控制流差异：新增、删除和修改的分支分别着色，未变化的子树折叠为一个节点
+ */
+public class ControlFlowDiffDialog extends DialogWrapper {
+    private final IfTreeDiff.Node diff;
+
+    public ControlFlowDiffDialog(@NotNull Project project, @NotNull IfTreeDiff.Node diff, @NotNull String title) {
+        super(project, true, IdeModalityType.MODELESS);
+        this.diff = diff;
+        setTitle(title);
+        init();
+    }
+
+    @Override
+    protected @Nullable JComponent createCenterPanel() {
+        DefaultMutableTreeNode rootNode = toTreeNode(diff);
+        Tree tree = new Tree(new DefaultTreeModel(rootNode));
+        tree.setCellRenderer(new DiffRenderer());
+        tree.setRootVisible(true);
+        // 只展开有变化的路径，未变化的子树本身就没有子节点
+        Enumeration<TreeNode> nodes = rootNode.preorderEnumeration();
+        while (nodes.hasMoreElements()) {
+            DefaultMutableTreeNode node = (DefaultMutableTreeNode) nodes.nextElement();
+            if (node.getChildCount() > 0) {
+                tree.expandPath(new TreePath(node.getPath()));
+            }
+        }
+
+        JBScrollPane scrollPane = new JBScrollPane(tree);
+        scrollPane.setPreferredSize(new Dimension(800, 600));
+        return scrollPane;
+    }
+
+    @Override
+    protected Action @NotNull [] createActions() {
+        return new Action[]{getOKAction()};
+    }
+
+    private static DefaultMutableTreeNode toTreeNode(IfTreeDiff.Node root) {
+        DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(root);
+        Deque<DefaultMutableTreeNode> stack = new ArrayDeque<>();
+        stack.push(rootNode);
+        while (!stack.isEmpty()) {
+            DefaultMutableTreeNode treeNode = stack.pop();
+            for (IfTreeDiff.Node child : ((IfTreeDiff.Node) treeNode.getUserObject()).getChildren()) {
+                DefaultMutableTreeNode childNode = new DefaultMutableTreeNode(child);
+                treeNode.add(childNode);
+                stack.push(childNode);
+            }
+        }
+        return rootNode;
+    }
+
+    private static class DiffRenderer extends ColoredTreeCellRenderer {
+        @Override
+        public void customizeCellRenderer(@NotNull JTree tree, Object value, boolean selected, boolean expanded,
+                                          boolean leaf, int row, boolean hasFocus) {
+            Object userObject = ((DefaultMutableTreeNode) value).getUserObject();
+            if (!(userObject instanceof IfTreeDiff.Node)) {
+                return;
+            }
+            IfTreeDiff.Node node = (IfTreeDiff.Node) userObject;
+            switch (node.getStatus()) {
+                case ADDED:
+                    append("+ " + node, new SimpleTextAttributes(SimpleTextAttributes.STYLE_PLAIN, FileStatus.ADDED.getColor()));
+                    break;
+                case REMOVED:
+                    append("- " + node, new SimpleTextAttributes(SimpleTextAttributes.STYLE_STRIKEOUT, FileStatus.DELETED.getColor()));
+                    break;
+                case CHANGED:
+                    append((node.isLabelChanged() ? "~ " : "  ") + node,
+                            new SimpleTextAttributes(SimpleTextAttributes.STYLE_PLAIN,
+                                    node.isLabelChanged() ? FileStatus.MODIFIED.getColor() : null));
+                    break;
+                default:
+                    append("  " + node, SimpleTextAttributes.GRAYED_ATTRIBUTES);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+import com.intellij.util.ui.JBUI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 批量分析结果报告。表格可按任意列排序，默认按分析耗时从高到低排列，双击跳转到方法。
+ * 被截断的方法单独标出，它们的指标只是下限
+ */
+public class ControlFlowReportDialog extends DialogWrapper {
+    private static final String[] COLUMNS = {"方法", "类", "嵌套深度", "分支数", "节点数", "分析耗时(ms)", "已截断"};
+    private static final int TIME_COLUMN = 5;
+    private static final int TRUNCATED_COLUMN = 6;
+    private static final int SLOWEST_SHOWN = 5;
+
+    private final Project project;
+    private final List<MethodReport> reports;
+    private final String scopeName;
+
+    public ControlFlowReportDialog(@NotNull Project project, @NotNull List<MethodReport> reports, @NotNull String scopeName) {
+        super(project, true, IdeModalityType.MODELESS);
+        this.project = project;
+        this.reports = reports;
+        this.scopeName = scopeName;
+        setTitle("控制流复杂度报告 - " + scopeName);
+        init();
+    }
+
+    @Override
+    protected @Nullable JComponent createNorthPanel() {
+        // 只比较本次实际分析过的方法，来自索引的结果没有耗时
+        List<MethodReport> slowest = reports.stream()
+                .filter(MethodReport::isMeasured)
+                .sorted(Comparator.comparingLong(MethodReport::getAnalysisNanos).reversed())
+                .limit(SLOWEST_SHOWN)
+                .collect(Collectors.toList());
+
+        StringBuilder text = new StringBuilder("<html>")
+                .append(scopeName).append("：共 ").append(reports.size()).append(" 个方法");
+        long truncated = reports.stream().filter(MethodReport::isTruncated).count();
+        if (truncated > 0) {
+            text.append("，其中 ").append(truncated).append(" 个方法的分析被截断，数值偏小");
+        }
+        if (!slowest.isEmpty()) {
+            text.append("<br>分析最慢：");
+            for (int i = 0; i < slowest.size(); i++) {
+                MethodReport report = slowest.get(i);
+                text.append(i == 0 ? "" : "，")
+                        .append(IfTreeHtmlRenderer.escapeHtml(report.getMethodName()))
+                        .append(String.format(" (%.2f ms)", report.getAnalysisNanos() / 1_000_000.0));
+            }
+        }
+        JBLabel label = new JBLabel(text.append("</html>").toString());
+        label.setBorder(JBUI.Borders.emptyBottom(8));
+        return label;
+    }
+
+    @Override
+    protected @Nullable JComponent createCenterPanel() {
+        ReportTableModel model = new ReportTableModel(reports);
+        JBTable table = new JBTable(model);
+        TableRowSorter<ReportTableModel> sorter = new TableRowSorter<>(model);
+        sorter.setSortKeys(Collections.singletonList(new RowSorter.SortKey(TIME_COLUMN, SortOrder.DESCENDING)));
+        table.setRowSorter(sorter);
+        table.getColumnModel().getColumn(0).setPreferredWidth(300);
+        table.getColumnModel().getColumn(1).setPreferredWidth(250);
+
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && table.getSelectedRow() >= 0) {
+                    int row = table.convertRowIndexToModel(table.getSelectedRow());
+                    reports.get(row).navigate(project);
+                }
+            }
+        });
+
+        JBScrollPane scrollPane = new JBScrollPane(table);
+        scrollPane.setPreferredSize(new Dimension(1000, 600));
+        return scrollPane;
+    }
+
+    @Override
+    protected Action @NotNull [] createActions() {
+        return new Action[]{getOKAction()};
+    }
+
+    private static class ReportTableModel extends AbstractTableModel {
+        private final List<MethodReport> reports;
+
+        ReportTableModel(List<MethodReport> reports) {
+            this.reports = reports;
+        }
+
+        @Override
+        public int getRowCount() {
+            return reports.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 0:
+                case 1:
+                    return String.class;
+                case TIME_COLUMN:
+                    return Double.class;
+                case TRUNCATED_COLUMN:
+                    return Boolean.class;
+                default:
+                    return Integer.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            MethodReport report = reports.get(row);
+            switch (column) {
+                case 0:
+                    return report.getMethodName();
+                case 1:
+                    return report.getClassName();
+                case 2:
+                    return report.getMetrics().getMaxDepth();
+                case 3:
+                    return report.getMetrics().getBranchCount();
+                case 4:
+                    return report.getMetrics().getNodeCount();
+                case TRUNCATED_COLUMN:
+                    return report.isTruncated();
+                default:
+                    return report.isMeasured() ? report.getAnalysisNanos() / 1_000_000.0 : null;
+            }
+        }
+    }
+}
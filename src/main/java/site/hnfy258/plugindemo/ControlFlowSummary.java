@@ -0,0 +1,176 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 方法控制流的轻量摘要：是否包含控制流、最大嵌套深度、分支数。
+ * 只扫描语句结构不构建树，结果记录在PsiMethod上，
+ * 方法体被编辑时由 {@link IfTreeChangeListener} 清除，其余方法在后续高亮中直接复用
+ */
+public final class ControlFlowSummary {
+    private static final Key<ControlFlowSummary> KEY = Key.create("visualizeif.summary");
+    private static final ControlFlowSummary EMPTY = new ControlFlowSummary(false, 0, 0, 0);
+
+    private final boolean hasControlFlow;
+    private final int maxDepth;
+    private final int branchCount;
+    // 非物理文件不会收到PSI变更事件，需要用修改戳判断是否过期
+    private final long modificationStamp;
+
+    private ControlFlowSummary(boolean hasControlFlow, int maxDepth, int branchCount, long modificationStamp) {
+        this.hasControlFlow = hasControlFlow;
+        this.maxDepth = maxDepth;
+        this.branchCount = branchCount;
+        this.modificationStamp = modificationStamp;
+    }
+
+    public boolean hasControlFlow() {
+        return hasControlFlow;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getBranchCount() {
+        return branchCount;
+    }
+
+    public static ControlFlowSummary of(@NotNull PsiMethod method) {
+        PsiFile file = method.getContainingFile();
+        boolean physical = file != null && file.isPhysical();
+        long stamp = file == null ? 0 : file.getModificationStamp();
+
+        ControlFlowSummary cached = method.getUserData(KEY);
+        if (cached != null && (physical || cached.modificationStamp == stamp)) {
+            return cached;
+        }
+
+        long start = System.nanoTime();
+        ControlFlowSummary summary = compute(method.getBody(), stamp);
+        ControlFlowDiagnostics.getInstance().record(ControlFlowDiagnostics.Stage.PSI_SCAN, System.nanoTime() - start);
+        method.putUserData(KEY, summary);
+        return summary;
+    }
+
+    /**
+     * 清除被修改元素所在方法（包括外层方法）的摘要
+     */
+    public static void invalidate(@Nullable PsiElement changed) {
+        for (PsiElement element = changed; element != null && !(element instanceof PsiFile); element = element.getParent()) {
+            if (element instanceof PsiMethod) {
+                element.putUserData(KEY, null);
+            }
+        }
+    }
+
+    /**
+     * 按与 {@link AnalyzeIf} 相同的结构规则扫描语句，深度与生成的树中节点深度一致
+     */
+    private static ControlFlowSummary compute(@Nullable PsiCodeBlock body, long stamp) {
+        if (body == null) {
+            return EMPTY;
+        }
+
+        boolean hasControlFlow = false;
+        int maxDepth = 0;
+        int branchCount = 0;
+
+        Deque<PsiStatement> statements = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        pushAll(statements, depths, body.getStatements(), 1);
+
+        while (!statements.isEmpty()) {
+            PsiStatement statement = statements.pop();
+            int depth = depths.pop();
+
+            if (statement instanceof PsiIfStatement) {
+                hasControlFlow = true;
+                maxDepth = Math.max(maxDepth, depth);
+                PsiStatement current = statement;
+                // else-if链中的每一环都是同一层的分支
+                while (current instanceof PsiIfStatement) {
+                    PsiIfStatement ifStatement = (PsiIfStatement) current;
+                    branchCount++;
+                    push(statements, depths, ifStatement.getThenBranch(), depth + 1);
+                    current = ifStatement.getElseBranch();
+                }
+                push(statements, depths, current, depth + 1);
+            } else if (statement instanceof PsiLoopStatement) {
+                hasControlFlow = true;
+                maxDepth = Math.max(maxDepth, depth);
+                branchCount++;
+                push(statements, depths, ((PsiLoopStatement) statement).getBody(), depth + 1);
+            } else if (statement instanceof PsiSwitchStatement) {
+                hasControlFlow = true;
+                maxDepth = Math.max(maxDepth, depth);
+                PsiCodeBlock switchBody = ((PsiSwitchStatement) statement).getBody();
+                if (switchBody == null) {
+                    continue;
+                }
+                for (PsiStatement child : switchBody.getStatements()) {
+                    if (child instanceof PsiSwitchLabelStatementBase) {
+                        maxDepth = Math.max(maxDepth, depth + 1);
+                        if (!((PsiSwitchLabelStatementBase) child).isDefaultCase()) {
+                            branchCount++;
+                        }
+                        if (child instanceof PsiSwitchLabeledRuleStatement) {
+                            push(statements, depths, ((PsiSwitchLabeledRuleStatement) child).getBody(), depth + 2);
+                        }
+                    } else {
+                        push(statements, depths, child, depth + 2);
+                    }
+                }
+            } else if (statement instanceof PsiTryStatement) {
+                hasControlFlow = true;
+                maxDepth = Math.max(maxDepth, depth);
+                PsiTryStatement tryStatement = (PsiTryStatement) statement;
+                pushAll(statements, depths, tryStatement.getTryBlock(), depth + 1);
+                for (PsiCatchSection catchSection : tryStatement.getCatchSections()) {
+                    branchCount++;
+                    pushAll(statements, depths, catchSection.getCatchBlock(), depth + 1);
+                }
+                pushAll(statements, depths, tryStatement.getFinallyBlock(), depth + 1);
+            } else if (statement instanceof PsiBlockStatement) {
+                pushAll(statements, depths, ((PsiBlockStatement) statement).getCodeBlock(), depth);
+            } else if (statement instanceof PsiLabeledStatement) {
+                push(statements, depths, ((PsiLabeledStatement) statement).getStatement(), depth);
+            } else if (statement instanceof PsiSynchronizedStatement) {
+                pushAll(statements, depths, ((PsiSynchronizedStatement) statement).getBody(), depth);
+            }
+        }
+
+        if (!hasControlFlow) {
+            return new ControlFlowSummary(false, 0, 0, stamp);
+        }
+        return new ControlFlowSummary(true, maxDepth, branchCount, stamp);
+    }
+
+    private static void push(Deque<PsiStatement> statements, Deque<Integer> depths, @Nullable PsiStatement statement,
+                             int depth) {
+        if (statement != null) {
+            statements.push(statement);
+            depths.push(depth);
+        }
+    }
+
+    private static void pushAll(Deque<PsiStatement> statements, Deque<Integer> depths, @Nullable PsiCodeBlock block,
+                                int depth) {
+        if (block != null) {
+            pushAll(statements, depths, block.getStatements(), depth);
+        }
+    }
+
+    private static void pushAll(Deque<PsiStatement> statements, Deque<Integer> depths, PsiStatement[] block, int depth) {
+        for (PsiStatement statement : block) {
+            statements.push(statement);
+            depths.push(depth);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.lang.LighterAST;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 每个Java文件中各方法控制流摘要的持久化索引。
+ * 键为方法签名，索引时基于LighterAST计算，不需要构建PSI，IDE重启后依然有效。
+ * 批量报告直接读取未打开文件的摘要
+ */
+public class ControlFlowSummaryIndex extends FileBasedIndexExtension<String, IndexedMethodSummary> {
+    public static final ID<String, IndexedMethodSummary> NAME = ID.create("visualizeif.controlFlowSummary");
+
+    @Override
+    public @NotNull ID<String, IndexedMethodSummary> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, IndexedMethodSummary, FileContent> getIndexer() {
+        return inputData -> {
+            LighterAST tree = ((PsiDependentFileContent) inputData).getLighterAST();
+            List<LighterAstAnalyzeIf.MethodTree> methods =
+                    new LighterAstAnalyzeIf(tree, inputData.getContentAsText()).analyzeFile();
+            if (methods.isEmpty()) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, IndexedMethodSummary> result = new HashMap<>();
+            for (LighterAstAnalyzeIf.MethodTree method : methods) {
+                // 同一文件中签名相同的方法（如多个匿名类中的run()）加序号区分
+                String key = method.getSignature();
+                for (int i = 2; result.containsKey(key); i++) {
+                    key = method.getSignature() + "#" + i;
+                }
+                result.put(key, IndexedMethodSummary.of(method.getOffset(), method.getEndOffset(),
+                        method.getTree().getMetrics()));
+            }
+            return result;
+        };
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<IndexedMethodSummary> getValueExternalizer() {
+        return new IndexedMethodSummary.Externalizer();
+    }
+
+    @Override
+    public int getVersion() {
+        return 5;
+    }
+
+    @Override
+    public FileBasedIndex.@NotNull InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(JavaFileType.INSTANCE);
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    /**
+     * 文件中所有方法的摘要，键为方法签名。只读取这一个文件的索引数据，需要在读操作且非dumb模式下调用
+     */
+    @NotNull
+    public static Map<String, IndexedMethodSummary> forFile(@NotNull VirtualFile file, @NotNull Project project) {
+        return FileBasedIndex.getInstance().getFileData(NAME, file, project);
+    }
+
+    /**
+     * 与 {@link LighterAstAnalyzeIf.MethodTree#getSignature()} 相同格式的签名，不含位置信息，
+     * 文件中其他地方的编辑不会改变它。需要在读操作中调用
+     */
+    @NotNull
+    public static String signatureOf(@NotNull PsiMethod method) {
+        List<String> classNames = new ArrayList<>();
+        for (PsiClass owner = method.getContainingClass(); owner != null; owner = ownerOf(owner)) {
+            if (!(owner instanceof PsiEnumConstantInitializer)) {
+                classNames.add(owner instanceof PsiAnonymousClass
+                        ? "$" + anonymousIndex((PsiAnonymousClass) owner) : String.valueOf(owner.getName()));
+            }
+        }
+        PsiFile file = method.getContainingFile();
+        StringBuilder signature = new StringBuilder(file instanceof PsiJavaFile ? ((PsiJavaFile) file).getPackageName() : "");
+        for (int i = classNames.size() - 1; i >= 0; i--) {
+            if (signature.length() > 0) {
+                signature.append('.');
+            }
+            signature.append(classNames.get(i));
+        }
+        signature.append('#').append(method.getName()).append('(');
+        PsiParameter[] parameters = method.getParameterList().getParameters();
+        for (int i = 0; i < parameters.length; i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            PsiTypeElement typeElement = parameters[i].getTypeElement();
+            signature.append(typeElement == null ? "" : withoutWhitespace(typeElement.getText()));
+        }
+        return signature.append(')').toString();
+    }
+
+    static String withoutWhitespace(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 语法上包含这个类的类，枚举常量的类体不算
+     */
+    @Nullable
+    private static PsiClass ownerOf(PsiClass psiClass) {
+        PsiClass owner = PsiTreeUtil.getParentOfType(psiClass, PsiClass.class);
+        while (owner instanceof PsiEnumConstantInitializer) {
+            owner = PsiTreeUtil.getParentOfType(owner, PsiClass.class);
+        }
+        return owner;
+    }
+
+    /**
+     * 匿名类在外层类中按源码顺序的编号，从1开始；嵌套在其他类中的匿名类不计入
+     */
+    private static int anonymousIndex(PsiAnonymousClass anonymousClass) {
+        PsiClass owner = ownerOf(anonymousClass);
+        if (owner == null) {
+            return 1;
+        }
+        int index = 0;
+        Deque<PsiElement> stack = new ArrayDeque<>();
+        pushChildren(stack, owner);
+        while (!stack.isEmpty()) {
+            PsiElement element = stack.pop();
+            if (element instanceof PsiClass && !(element instanceof PsiEnumConstantInitializer)) {
+                if (element instanceof PsiAnonymousClass) {
+                    index++;
+                    if (element == anonymousClass) {
+                        return index;
+                    }
+                }
+                // 其他类内部的匿名类由那个类编号
+                continue;
+            }
+            pushChildren(stack, element);
+        }
+        return index + 1;
+    }
+
+    private static void pushChildren(Deque<PsiElement> stack, PsiElement element) {
+        PsiElement[] children = element.getChildren();
+        for (int i = children.length - 1; i >= 0; i--) {
+            stack.push(children[i]);
+        }
+    }
+}
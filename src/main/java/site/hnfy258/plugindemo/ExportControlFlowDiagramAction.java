@@ -0,0 +1,127 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.intellij.openapi.wm.StatusBar;
+import com.intellij.openapi.wm.WindowManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 把光标所在方法的控制流导出为PlantUML活动图（SVG、PNG或.puml源码）。
+ * 分析、渲染和写文件都在后台线程中进行
+ */
+public class ExportControlFlowDiagramAction extends AnAction {
+    private static final String PLANTUML_EXTENSION = "puml";
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        PsiFile file = e.getData(CommonDataKeys.PSI_FILE);
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null && e.getData(CommonDataKeys.EDITOR) != null
+                && file instanceof PsiJavaFile);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        Editor editor = e.getData(CommonDataKeys.EDITOR);
+        PsiFile file = e.getData(CommonDataKeys.PSI_FILE);
+        if (project == null || editor == null || file == null) {
+            return;
+        }
+
+        PsiMethod method = PsiTreeUtil.getParentOfType(file.findElementAt(editor.getCaretModel().getOffset()), PsiMethod.class);
+        if (method == null || method.getBody() == null) {
+            Messages.showInfoMessage(project, "请将光标放在一个带方法体的方法中", "导出控制流图");
+            return;
+        }
+
+        FileSaverDescriptor descriptor = new FileSaverDescriptor("导出控制流图", "选择保存位置，扩展名决定导出格式",
+                PlantUmlDiagramService.Format.SVG.getExtension(), PlantUmlDiagramService.Format.PNG.getExtension(),
+                PLANTUML_EXTENSION);
+        VirtualFileWrapper target = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project)
+                .save((VirtualFile) null, method.getName() + "." + PlantUmlDiagramService.Format.SVG.getExtension());
+        if (target == null) {
+            return;
+        }
+        File output = target.getFile();
+        String extension = FileUtilRt.getExtension(output.getName()).toLowerCase();
+
+        ReadAction.nonBlocking(() -> IfTreeCacheService.getInstance(project).getIfTree(method))
+                .expireWhen(() -> project.isDisposed() || !method.isValid())
+                .submit(AppExecutorUtil.getAppExecutorService())
+                .onSuccess(tree -> export(tree, extension)
+                        .thenAccept(content -> write(output, content))
+                        .whenComplete((ignored, error) -> ApplicationManager.getApplication().invokeLater(() -> {
+                            if (project.isDisposed()) {
+                                return;
+                            }
+                            if (error != null) {
+                                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                        ? error.getCause() : error;
+                                Messages.showErrorDialog(project, "导出失败: " + cause.getMessage(), "导出控制流图");
+                                return;
+                            }
+                            StatusBar statusBar = WindowManager.getInstance().getStatusBar(project);
+                            if (statusBar != null) {
+                                statusBar.setInfo("控制流图已导出到 " + output.getPath());
+                            }
+                        })))
+                .onError(error -> ApplicationManager.getApplication().invokeLater(() -> {
+                    if (!project.isDisposed()) {
+                        Messages.showErrorDialog(project, "分析失败: " + error.getMessage(), "导出控制流图");
+                    }
+                }));
+    }
+
+    private static CompletableFuture<byte[]> export(IFTreeNode tree, String extension) {
+        PlantUmlDiagramService service = PlantUmlDiagramService.getInstance();
+        if (PLANTUML_EXTENSION.equals(extension)) {
+            return CompletableFuture.completedFuture(service.toPlantUml(tree).getBytes(StandardCharsets.UTF_8));
+        }
+        PlantUmlDiagramService.Format format = PlantUmlDiagramService.Format.PNG.getExtension().equals(extension)
+                ? PlantUmlDiagramService.Format.PNG : PlantUmlDiagramService.Format.SVG;
+        return service.render(tree, format);
+    }
+
+    private static void write(File output, byte[] content) {
+        try {
+            Files.write(output.toPath(), content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // 文件可能在项目目录中，让VFS尽快看到它
+        LocalFileSystem.getInstance().refreshIoFiles(List.of(output), true, false, null);
+    }
+}
@@ -1,79 +1,77 @@
 package site.hnfy258.plugindemo;
 
-import java.awt.*;
-import java.util.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 public class IFTreeNode {
     public enum NodeType {
-        IF, ELSE_IF, ELSE, THEN_BRANCH, STATEMENT, METHOD,
-        WHILE, DO_WHILE, FOR, SWITCH, CASE, DEFAULT, TRY,
-        CATCH, FINALLY,SWITCH_EXPR,EXPRESSION, TEMP, RESOURCE
-    }
+        IF("if (", ")"), ELSE_IF("else if (", ")"), ELSE, THEN_BRANCH, STATEMENT, METHOD,
+        WHILE("while (", ")"), DO_WHILE("do-while (", ")"), FOR("for (", ")"), SWITCH("switch (", ")"),
+        CASE, DEFAULT, TRY("try", ""),
+        CATCH("catch (", ")"), FINALLY, SWITCH_EXPR, EXPRESSION, TEMP, RESOURCE,
+        // 分析达到节点数、深度或时间上限时插入的标记，其下的内容没有分析
+        TRUNCATED;
 
-    private NodeType type;
-    private String text;
-    // 懒加载子节点列表，只在需要时初始化
-    private List<IFTreeNode> children;
+        // 引用源码区间的节点在显示时套上的前后缀
+        final String prefix;
+        final String suffix;
 
-
-    // 在类的顶部添加这些字段
-    private static final Color[] PREDEFINED_COLORS = {
-            new Color(255, 100, 100),  // 亮红色
-            new Color(100, 255, 100),  // 亮绿色
-            new Color(100, 180, 255),  // 亮蓝色
-            new Color(255, 200, 100),  // 亮橙色
-            new Color(200, 100, 255),  // 亮紫色
-            new Color(100, 255, 200),  // 亮青色
-            new Color(255, 130, 200),  // 亮粉色
-            new Color(180, 255, 100),  // 亮黄绿色
-            new Color(255, 255, 150),  // 亮黄色
-            new Color(150, 255, 255)   // 亮蓝绿色
-    };
-    private static final Random random = new Random();
-
-    // 添加此方法用于获取深度对应的颜色
-    // 添加一个颜色缓存，用于存储超过预定义颜色数量的层级颜色
-    private static final Map<Integer, Color> colorCache = new HashMap<>();
-
-    /**
-     * 获取指定深度的颜色
-     */
-    private Color getColorForDepth(int depth) {
-        if (depth < PREDEFINED_COLORS.length) {
-            return PREDEFINED_COLORS[depth];
+        NodeType() {
+            this("", "");
         }
 
-        // 检查缓存中是否已有该深度的颜色
-        if (colorCache.containsKey(depth)) {
-            return colorCache.get(depth);
+        NodeType(String prefix, String suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
         }
-
-        // 生成新的随机颜色（确保在黑色背景上可见）
-        Random random = new Random(depth);
-        int r = 100 + random.nextInt(156); // 100-255范围，确保足够亮
-        int g = 100 + random.nextInt(156);
-        int b = 100 + random.nextInt(156);
-        Color newColor = new Color(r, g, b);
-
-        // 将新颜色存入缓存
-        colorCache.put(depth, newColor);
-
-        return newColor;
     }
 
+    private NodeType type;
+    // 固定文本时start为-1，label就是完整文本；否则label是文件内容或驻留时拼出的标签文本，start/length指向其中的一段
+    private CharSequence label;
+    private int start;
+    private final int length;
+    // 懒加载子节点列表，只在需要时初始化
+    private List<IFTreeNode> children;
+
 
     public IFTreeNode(NodeType type, String text) {
         this.type = type;
-        this.text = text;
+        this.label = text;
+        this.start = -1;
+        this.length = text.length();
         // 不在构造函数中初始化children，而是在需要时才创建
     }
 
+    /**
+     * 标签引用文件内容中的一段区间，只在显示时才拼出字符串
+     */
+    public IFTreeNode(NodeType type, CharSequence source, int start, int length) {
+        this.type = type;
+        this.label = source;
+        this.start = start;
+        this.length = length;
+    }
+
+    // 结构哈希，0表示尚未计算
+    private long structuralHash;
+    // 根节点上记录的复杂度指标，null表示尚未计算
+    private IfTreeMetrics metrics;
+    private int internedSize;
+    // 已放入驻留池，可能被多棵树引用
+    private boolean shared;
+
     public void addChild(IFTreeNode child) {
         if (children == null) {
             children = new ArrayList<>(4); // 使用较小的初始容量
         }
         children.add(child);
+        structuralHash = 0;
+        metrics = null;
     }
 
     public NodeType getType() {
@@ -81,59 +79,209 @@ public class IFTreeNode {
     }
 
     public String getText() {
-        return text;
+        return getText(Integer.MAX_VALUE);
     }
 
-    public List<IFTreeNode> getChildren() {
-        return children == null ? Collections.emptyList() : children;
+    /**
+     * 生成标签文本，超过maxLength个字符时截断并以省略号结尾
+     */
+    public String getText(int maxLength) {
+        if (start < 0 && label.length() <= maxLength) {
+            return label.toString();
+        }
+        StringBuilder builder = new StringBuilder(Math.min(maxLength, length + 16));
+        appendLabel(builder, type, label, start, length, maxLength);
+        return builder.toString();
     }
 
-    @Override
-    public String toString() {
-        StringBuilder builder = new StringBuilder(256);
-        buildString(builder, "", "", 0); // 添加深度参数
-        return builder.toString();
+    /**
+     * 追加带前后缀的标签，超过maxLength个字符时截断并以省略号结尾；只复制保留下来的字符，
+     * 含多行lambda的长条件不会先整段追加再截掉
+     */
+    static void appendLabel(StringBuilder builder, NodeType type, CharSequence label, int start, int length,
+                            int maxLength) {
+        String prefix = start < 0 ? "" : type.prefix;
+        String suffix = start < 0 ? "" : type.suffix;
+        int from = Math.max(start, 0);
+        if (prefix.length() + length + suffix.length() <= maxLength) {
+            builder.append(prefix).append(label, from, from + length).append(suffix);
+            return;
+        }
+        int remaining = Math.max(0, maxLength - 1);
+        int count = Math.min(remaining, prefix.length());
+        builder.append(prefix, 0, count);
+        remaining -= count;
+        count = Math.min(remaining, length);
+        builder.append(label, from, from + count);
+        remaining -= count;
+        builder.append(suffix, 0, Math.min(remaining, suffix.length()));
+        builder.append('…');
     }
 
-    private void buildString(StringBuilder builder, String prefix, String childrenPrefix, int depth) {
-        // 当前节点使用当前深度的颜色
-        Color nodeColor = getColorForDepth(depth);
-        String colorHtml = String.format("<span style=\"color:rgb(%d,%d,%d)\">",
-                nodeColor.getRed(), nodeColor.getGreen(), nodeColor.getBlue());
-        String closeSpan = "</span>";
+    /**
+     * 固定文本的标签换成intern返回的字符串
+     */
+    void internLabel(UnaryOperator<String> intern) {
+        if (start < 0) {
+            label = intern.apply(label.toString());
+        }
+    }
 
-        builder.append(prefix).append(colorHtml).append(escapeHtml(text)).append(closeSpan).append('\n');
+    /**
+     * 区间标签改为引用text中从start开始、长度不变的一段。显示的文本和结构哈希都不变
+     */
+    void rebaseLabel(CharSequence text, int start) {
+        this.label = text;
+        this.start = start;
+    }
 
-        if (children == null) return;
+    /**
+     * 两个节点显示的标签是否相同，逐字符比较，不要求引用同一段文本
+     */
+    boolean hasSameLabel(IFTreeNode other) {
+        if ((start < 0) != (other.start < 0) || length != other.length) {
+            return false;
+        }
+        int from = Math.max(start, 0);
+        int otherFrom = Math.max(other.start, 0);
+        for (int i = 0; i < length; i++) {
+            if (label.charAt(from + i) != other.label.charAt(otherFrom + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        final int lastIndex = children.size() - 1;
-        for (int i = 0; i < children.size(); i++) {
-            IFTreeNode child = children.get(i);
-            boolean isLast = (i == lastIndex);
+    /**
+     * 用结构相同的节点替换第index个子节点，已算好的哈希和指标保持有效
+     */
+    void setChild(int index, IFTreeNode child) {
+        children.set(index, child);
+    }
 
-            // 子节点的颜色 - 用于连线
-            Color childColor = getColorForDepth(depth + 1);
-            String childColorHtml = String.format("<span style=\"color:rgb(%d,%d,%d)\">",
-                    childColor.getRed(), childColor.getGreen(), childColor.getBlue());
+    /**
+     * 驻留时算出的子树节点数，0表示尚未驻留
+     */
+    int getInternedSize() {
+        return internedSize;
+    }
+
+    void setInternedSize(int internedSize) {
+        this.internedSize = internedSize;
+    }
+
+    boolean isShared() {
+        return shared;
+    }
+
+    void markShared() {
+        shared = true;
+    }
+
+    CharSequence getLabelSource() {
+        return label;
+    }
+
+    int getLabelStart() {
+        return start;
+    }
+
+    int getLabelLength() {
+        return length;
+    }
+
+    public List<IFTreeNode> getChildren() {
+        return children == null ? Collections.emptyList() : children;
+    }
+
+    /**
+     * 子树的结构哈希，由节点类型、规范化后的标签和各子节点的哈希按顺序组合而成，自底向上计算一次后缓存。
+     * 结构相同的子树哈希相同，用于跳过未变化的子树；应在树构建完成后调用
+     */
+    public long getStructuralHash() {
+        if (structuralHash != 0) {
+            return structuralHash;
+        }
+        // 显式栈的后序遍历，子节点的哈希都算好后再算父节点
+        Deque<IFTreeNode> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            IFTreeNode node = stack.peek();
+            if (node.structuralHash != 0) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (IFTreeNode child : node.getChildren()) {
+                if (child.structuralHash == 0) {
+                    stack.push(child);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                node.structuralHash = node.computeStructuralHash();
+            }
+        }
+        return structuralHash;
+    }
+
+    private long computeStructuralHash() {
+        long hash = mix(0x84222325CBF29CE4L, type.ordinal());
+        hash = mix(hash, getNormalizedLabelHash());
+        for (IFTreeNode child : getChildren()) {
+            hash = mix(hash, child.structuralHash);
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * 忽略空白字符的标签哈希，只改了缩进、换行或空格的条件哈希不变
+     */
+    long getNormalizedLabelHash() {
+        int from = start < 0 ? 0 : start;
+        int to = start < 0 ? label.length() : start + length;
+        long hash = 0;
+        for (int i = from; i < to; i++) {
+            char c = label.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                hash = 31 * hash + c;
+            }
+        }
+        return hash;
+    }
 
-            // 连接线使用子节点的颜色
-            String newPrefix = childrenPrefix + (isLast ?
-                    childColorHtml + "└── " + closeSpan :
-                    childColorHtml + "├── " + closeSpan);
-            String newChildrenPrefix = childrenPrefix + (isLast ?
-                    "    " :
-                    childColorHtml + "│   " + closeSpan);
+    private static long mix(long hash, long value) {
+        return (Long.rotateLeft(hash, 7) ^ value) * 0x9E3779B97F4A7C15L;
+    }
 
-            child.buildString(builder, newPrefix, newChildrenPrefix, depth + 1);
+    /**
+     * 以本节点为根的树的复杂度指标。AnalyzeIf在构建时顺带算好并记录在根节点上，
+     * 其他来源的树在第一次调用时遍历计算
+     */
+    public IfTreeMetrics getMetrics() {
+        IfTreeMetrics result = metrics;
+        if (result == null) {
+            result = IfTreeMetrics.of(this);
+            metrics = result;
         }
+        return result;
+    }
+
+    void setMetrics(IfTreeMetrics metrics) {
+        this.metrics = metrics;
     }
 
-    private String escapeHtml(String text) {
-        return text.replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;")
-                .replace("\"", "&quot;")
-                .replace("'", "&#39;");
+    /**
+     * 转换为数组存储的紧凑格式，适合节点数很多的树
+     */
+    public CompactIfTree toCompact() {
+        return CompactIfTree.of(this);
+    }
+
+    @Override
+    public String toString() {
+        return IfTreeHtmlRenderer.render(this);
     }
 
 
@@ -148,11 +296,16 @@ public class IFTreeNode {
     }
 
     public void invalidateCache() {
-        this.cachedString = null;
-        // 递归清除所有子节点的缓存
-        if (children != null) {
-            for (IFTreeNode child : children) {
-                child.invalidateCache();
+        // 用显式栈清除所有子节点的缓存，深层嵌套的树不会栈溢出
+        Deque<IFTreeNode> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            IFTreeNode node = stack.pop();
+            node.cachedString = null;
+            if (node.children != null) {
+                for (IFTreeNode child : node.children) {
+                    stack.push(child);
+                }
             }
         }
     }
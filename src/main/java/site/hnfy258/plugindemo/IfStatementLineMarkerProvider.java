@@ -4,38 +4,38 @@ import com.intellij.codeInsight.daemon.GutterIconNavigationHandler;
 import com.intellij.codeInsight.daemon.RelatedItemLineMarkerInfo;
 import com.intellij.codeInsight.daemon.RelatedItemLineMarkerProvider;
 import com.intellij.codeInsight.navigation.NavigationGutterIconBuilder;
-import com.intellij.icons.AllIcons;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.editor.colors.EditorColorsManager;
 import com.intellij.openapi.editor.colors.EditorColorsScheme;
-import com.intellij.openapi.editor.colors.EditorFontType;
 import com.intellij.openapi.editor.markup.GutterIconRenderer;
-import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.popup.JBPopup;
 import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.util.IconLoader;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.*;
 import com.intellij.ui.awt.RelativePoint;
 import com.intellij.ui.components.JBLabel;
-import com.intellij.ui.components.JBScrollPane;
-import com.intellij.ui.components.JBTextArea;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.ui.JBUI;
 
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
-import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.util.Collection;
-import java.util.Map;
-import java.util.WeakHashMap;
 
 public class IfStatementLineMarkerProvider extends RelatedItemLineMarkerProvider {
-
-    private final Map<PsiMethod, CachedIfTree> ifTreeCache = new WeakHashMap<>();
-
-
-
+    private static final String WARN_COMPLEXITY_KEY = "visualizeif.gutter.warnComplexity";
+    private static final String ERROR_COMPLEXITY_KEY = "visualizeif.gutter.errorComplexity";
+    private static final Icon LOW_COMPLEXITY_ICON =
+            IconLoader.getIcon("/icons/complexityLow.svg", IfStatementLineMarkerProvider.class);
+    private static final Icon MEDIUM_COMPLEXITY_ICON =
+            IconLoader.getIcon("/icons/complexityMedium.svg", IfStatementLineMarkerProvider.class);
+    private static final Icon HIGH_COMPLEXITY_ICON =
+            IconLoader.getIcon("/icons/complexityHigh.svg", IfStatementLineMarkerProvider.class);
 
 
     @Override
@@ -51,16 +51,9 @@ public class IfStatementLineMarkerProvider extends RelatedItemLineMarkerProvider
             return;
         }
 
-        // Check if the method has if statements
-        boolean hasControlFlowStructures = false;
-        for (PsiStatement statement : body.getStatements()) {
-            if (containsControlFlowStructure(statement)) {
-                hasControlFlowStructures = true;
-                break;
-            }
-        }
-
-        if (!hasControlFlowStructures) {
+        // 摘要在方法被编辑前一直有效，重复的高亮过程不会重新扫描
+        ControlFlowSummary summary = ControlFlowSummary.of(method);
+        if (!summary.hasControlFlow()) {
             return;
         }
 
@@ -74,11 +67,18 @@ public class IfStatementLineMarkerProvider extends RelatedItemLineMarkerProvider
             showIfTreePopup(e, method);
         };
 
-        // 创建图标标记
+        // 缓存中已有树时使用构建时算好的指标，没有时只用PSI摘要中的深度和分支数。
+        // 每次高亮都会调用，不为提示触发分析，也不查询索引：查询会让正在编辑的文件重新建索引
+        IFTreeNode cachedTree = IfTreeCacheService.getInstance(method.getProject()).getCachedTree(method);
+        IfTreeMetrics metrics = cachedTree == null ? null : cachedTree.getMetrics();
+        int complexity = metrics != null ? metrics.getCyclomaticComplexity() : summary.getBranchCount() + 1;
+        int maxDepth = metrics != null ? metrics.getMaxDepth() : summary.getMaxDepth();
+
+        // 创建图标标记，图标按圈复杂度分级
         RelatedItemLineMarkerInfo<PsiElement> info = NavigationGutterIconBuilder
-                .create(AllIcons.General.InspectionsEye)
+                .create(iconFor(complexity))
                 .setTargets(method)
-                .setTooltipText("查看控制流结构")
+                .setTooltipText(tooltip(complexity, maxDepth, metrics))
                 .setPopupTitle("控制流结构")
                 .setAlignment(GutterIconRenderer.Alignment.LEFT)
                 .setNamer(methodElement -> "控制流结构")
@@ -88,55 +88,52 @@ public class IfStatementLineMarkerProvider extends RelatedItemLineMarkerProvider
     }
 
     /**
-     * 检查语句中是否包含任何控制流结构
+     * 同一个分支图标按复杂度带上绿、黄、红三种角标，不借用错误和警告图标，避免与代码检查的标记混淆
      */
-    private boolean containsControlFlowStructure(PsiStatement statement) {
-        if (statement instanceof PsiIfStatement ||
-                statement instanceof PsiWhileStatement ||
-                statement instanceof PsiDoWhileStatement ||
-                statement instanceof PsiForStatement ||
-                statement instanceof PsiForeachStatement ||
-                statement instanceof PsiSwitchStatement ||
-                statement instanceof PsiTryStatement) {
-            return true;
+    private static Icon iconFor(int complexity) {
+        if (complexity > Registry.intValue(ERROR_COMPLEXITY_KEY, 20)) {
+            return HIGH_COMPLEXITY_ICON;
+        }
+        if (complexity > Registry.intValue(WARN_COMPLEXITY_KEY, 10)) {
+            return MEDIUM_COMPLEXITY_ICON;
         }
+        return LOW_COMPLEXITY_ICON;
+    }
 
-        if (statement instanceof PsiBlockStatement) {
-            PsiCodeBlock block = ((PsiBlockStatement) statement).getCodeBlock();
-            for (PsiStatement childStatement : block.getStatements()) {
-                if (containsControlFlowStructure(childStatement)) {
-                    return true;
+    /**
+     * 提示中显示圈复杂度和最大嵌套深度，有完整指标时再列出各类节点的数量
+     */
+    private static String tooltip(int complexity, int maxDepth, IfTreeMetrics metrics) {
+        StringBuilder text = new StringBuilder("<html>查看控制流结构<br>圈复杂度 ").append(complexity)
+                .append("，最大嵌套深度 ").append(maxDepth);
+        if (metrics != null) {
+            String separator = "<br>";
+            for (IFTreeNode.NodeType type : IFTreeNode.NodeType.values()) {
+                int count = metrics.getCount(type);
+                if (count == 0 || type == IFTreeNode.NodeType.METHOD || type == IFTreeNode.NodeType.TRUNCATED) {
+                    continue;
                 }
+                text.append(separator).append(StringUtil.toLowerCase(type.name()).replace('_', '-')).append(' ').append(count);
+                separator = "，";
+            }
+            if (metrics.getCount(IFTreeNode.NodeType.TRUNCATED) > 0) {
+                text.append("<br>（分析被截断，数值偏小）");
             }
         }
-
-        return false;
+        return text.append("</html>").toString();
     }
 
-    private IFTreeNode getIfTree(PsiMethod method) {
-        Project project = method.getProject();
-        PsiFile containingFile = method.getContainingFile();
-
-        // 使用 ReadAction 包装访问 PSI 的代码
-        return ReadAction.compute(() -> {
-            long currentModificationStamp = containingFile.getModificationStamp();
-
-            CachedIfTree cachedTree = ifTreeCache.get(method);
-            if (cachedTree != null && cachedTree.modificationStamp == currentModificationStamp) {
-                return cachedTree.tree;
-            }
-
-            // 缓存不存在或已过期，重新分析
-            AnalyzeIf analyzer = new AnalyzeIf();
-            IFTreeNode tree = analyzer.analyze(method);
-            ifTreeCache.put(method, new CachedIfTree(tree, currentModificationStamp));
-            return tree;
-        });
+    /**
+     * 取缓存中的树并转换为显示用的紧凑格式，在后台读操作中完成
+     */
+    private CompactIfTree getIfTree(PsiMethod method) {
+        return IfTreeCacheService.getInstance(method.getProject()).getIfTree(method).toCompact();
     }
 
 
 
     private void showIfTreePopup(MouseEvent e, PsiMethod method) {
+        long clickTime = System.nanoTime();
         // 创建加载提示
         JBLabel loadingLabel = new JBLabel("正在分析IF结构...");
         JBPopup loadingPopup = JBPopupFactory.getInstance()
@@ -145,61 +142,45 @@ public class IfStatementLineMarkerProvider extends RelatedItemLineMarkerProvider
                 .createPopup();
         loadingPopup.show(new RelativePoint(e));
 
-        // 后台线程执行分析
-        ApplicationManager.getApplication().executeOnPooledThread(() -> {
-            // 使用 ReadAction 包装
-            IFTreeNode ifTree = getIfTree(method);
-
-            // 切回UI线程显示结果
-            ApplicationManager.getApplication().invokeLater(() -> {
-                loadingPopup.cancel();
-                showResultPopup(e, method, ifTree);
-            });
-        });
+        // 在可取消的读操作中分析：关闭加载提示或方法失效后不再继续，遇到写操作时自动重新开始
+        ReadAction.nonBlocking(() -> getIfTree(method))
+                .expireWith(loadingPopup)
+                .expireWhen(() -> !method.isValid())
+                .finishOnUiThread(ModalityState.defaultModalityState(), ifTree -> {
+                    loadingPopup.cancel();
+                    showResultPopup(e, method, ifTree);
+                    ControlFlowDiagnostics.getInstance().record(ControlFlowDiagnostics.Stage.CLICK_TO_POPUP,
+                            System.nanoTime() - clickTime);
+                })
+                .submit(AppExecutorUtil.getAppExecutorService())
+                .onError(error -> ApplicationManager.getApplication().invokeLater(loadingPopup::cancel));
     }
 
 
-    private void showResultPopup(MouseEvent e, PsiMethod method, IFTreeNode ifTree) {
-        // 获取IDE编辑器字体
-        Font editorFont = EditorColorsManager.getInstance().getGlobalScheme().getFont(EditorFontType.PLAIN);
-
-        JPanel panel = new JPanel(new BorderLayout());
-
-        // 使用JEditorPane显示HTML内容
-        JEditorPane editorPane = new JEditorPane("text/html", "");
-        editorPane.setEditable(false);
-        editorPane.setFont(editorFont);
-        editorPane.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
+    private void showResultPopup(MouseEvent e, PsiMethod method, CompactIfTree ifTree) {
+        ControlFlowDiagnostics diagnostics = ControlFlowDiagnostics.getInstance();
+        long renderStart = System.nanoTime();
+        // 懒加载的树形视图，只构建可见的行，不再把整棵树渲染成HTML交给Swing解析
+        IfTreeViewer viewer = new IfTreeViewer(ifTree);
+        diagnostics.record(ControlFlowDiagnostics.Stage.RENDER, System.nanoTime() - renderStart);
 
         // 获取IDE配色方案
         EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
-        Color backgroundColor = scheme.getDefaultBackground();
-        Color foregroundColor = scheme.getDefaultForeground();
-
-        editorPane.setBackground    (backgroundColor);
-        editorPane.setForeground(foregroundColor);
-        editorPane.setBorder(JBUI.Borders.empty(10));
-
-        String htmlContent = "<html><body style='font-family: monospace;'><pre>" +
-                ifTree.toStringCached() +
-                "</pre></body></html>";
-        editorPane.setText(htmlContent);
-
-        JBScrollPane scrollPane = new JBScrollPane(editorPane);
-        scrollPane.setPreferredSize(new Dimension(800, 600));
-        scrollPane.setBorder(JBUI.Borders.empty());
-
-        panel.add(scrollPane, BorderLayout.CENTER);
+        viewer.getTree().setBackground(scheme.getDefaultBackground());
+        viewer.getTree().setForeground(scheme.getDefaultForeground());
+        viewer.setBorder(JBUI.Borders.empty(10));
 
+        long displayStart = System.nanoTime();
         JDialog dialog = new JDialog();
         dialog.setTitle("IF Logic Structure - " + method.getName());
-        dialog.setContentPane(panel);
+        dialog.setContentPane(viewer);
         dialog.setSize(800, 600);
         dialog.setLocationRelativeTo(null);
 
 
         // 显示对话框
         dialog.setVisible(true);
+        diagnostics.record(ControlFlowDiagnostics.Stage.UI_DISPLAY, System.nanoTime() - displayStart);
     }
 }
 
@@ -0,0 +1,165 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiMethod;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 项目级的控制流树缓存。
+ * 条目直接保存AnalyzeIf生成的已驻留的树，与语句上记录的子树是同一批节点，驻留池中的子树在各方法间共享。
+ * 按各自独有的节点数计重，共享的子树只算一个引用；总权重超过预算（visualizeif.cache.maxNodes）时按LRU淘汰，
+ * 以文件修改戳判断条目是否过期。显示时再转换为 {@link CompactIfTree}
+ */
+public final class IfTreeCacheService implements Disposable {
+    private static final String MAX_NODES_KEY = "visualizeif.cache.maxNodes";
+    private static final int DEFAULT_MAX_NODES = 200_000;
+
+    private final WeightedLruCache<MethodKey, Entry> cache = new WeightedLruCache<>(
+            16, () -> Registry.intValue(MAX_NODES_KEY, DEFAULT_MAX_NODES), entry -> entry.weight);
+
+    public static IfTreeCacheService getInstance(@NotNull Project project) {
+        return project.getService(IfTreeCacheService.class);
+    }
+
+    public IFTreeNode getIfTree(@NotNull PsiMethod method) {
+        return getIfTree(method, ControlFlowDiagnostics.Stage.TREE_BUILD);
+    }
+
+    /**
+     * 同getIfTree，分析耗时记录在stage下；用户没有在等待结果的预测性分析使用BACKGROUND_BUILD
+     */
+    IFTreeNode getIfTree(@NotNull PsiMethod method, @NotNull ControlFlowDiagnostics.Stage stage) {
+        return ReadAction.compute(() -> {
+            PsiFile containingFile = method.getContainingFile();
+            MethodKey key = MethodKey.of(method);
+            long currentModificationStamp = containingFile.getModificationStamp();
+
+            if (key != null) {
+                // 修改戳不一致的过期条目记为未命中，重新分析后的加载也计入统计
+                Entry cached = cache.get(key, entry -> entry.modificationStamp == currentModificationStamp);
+                if (cached != null) {
+                    return cached.tree;
+                }
+            }
+
+            // 缓存不存在或已过期，重新分析；未被编辑的语句子树会被直接复用
+            long start = System.nanoTime();
+            IFTreeNode tree = new AnalyzeIf(stage).analyze(method);
+            // 因节点数或时间上限提前结束的结果不缓存，下次打开时重新分析
+            if (key != null && !AnalyzeIf.isStopped(tree)) {
+                cache.recordLoad(System.nanoTime() - start);
+                cache.put(key, new Entry(tree, currentModificationStamp));
+            }
+            return tree;
+        });
+    }
+
+    /**
+     * 方法的树是否已在缓存中且未过期，不计入命中统计；需要在读操作中调用
+     */
+    public boolean isCached(@NotNull PsiMethod method) {
+        return getCachedTree(method) != null;
+    }
+
+    /**
+     * 返回缓存中未过期的树，没有时返回null而不触发分析，不计入命中统计；需要在读操作中调用
+     */
+    @Nullable
+    public IFTreeNode getCachedTree(@NotNull PsiMethod method) {
+        MethodKey key = MethodKey.of(method);
+        Entry cached = key == null ? null : cache.peek(key);
+        return cached != null && cached.modificationStamp == method.getContainingFile().getModificationStamp()
+                ? cached.tree : null;
+    }
+
+    /**
+     * 在一次遍历中为文件里所有缓存缺失或过期的方法生成控制流树并批量放入缓存，需要在读操作中调用
+     */
+    public void prewarm(@NotNull PsiFile file) {
+        long currentModificationStamp = file.getModificationStamp();
+        new AnalyzeIf(ControlFlowDiagnostics.Stage.BACKGROUND_BUILD).analyzeFile(file, method -> {
+            MethodKey key = MethodKey.of(method);
+            if (key == null) {
+                return false;
+            }
+            Entry cached = cache.peek(key);
+            return cached == null || cached.modificationStamp != currentModificationStamp;
+        }, (method, tree) -> {
+            MethodKey key = MethodKey.of(method);
+            if (key != null && !AnalyzeIf.isStopped(tree)) {
+                cache.put(key, new Entry(tree, currentModificationStamp));
+            }
+        });
+    }
+
+    public WeightedLruCache.CacheStats getStats() {
+        return cache.getStats();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public void dispose() {
+        cache.clear();
+    }
+
+    private static final class Entry {
+        final IFTreeNode tree;
+        final long modificationStamp;
+        final long weight;
+
+        Entry(IFTreeNode tree, long modificationStamp) {
+            this.tree = tree;
+            this.modificationStamp = modificationStamp;
+            this.weight = IfTreeInterner.unsharedSize(tree);
+        }
+    }
+
+    /**
+     * 缓存键只保存文件和方法签名，不持有PSI，避免缓存把整棵PSI树留在内存里
+     */
+    static final class MethodKey {
+        private final VirtualFile file;
+        private final String signature;
+
+        private MethodKey(VirtualFile file, String signature) {
+            this.file = file;
+            this.signature = signature;
+        }
+
+        /**
+         * 签名与 {@link ControlFlowSummaryIndex#signatureOf} 相同，匿名类按序号、参数类型按源码文本，
+         * 不含位置，也不需要解析类型；文件中其他位置的编辑不会让条目失效
+         */
+        @Nullable
+        static MethodKey of(PsiMethod method) {
+            PsiFile containingFile = method.getContainingFile();
+            VirtualFile file = containingFile == null ? null : containingFile.getVirtualFile();
+            if (file == null) {
+                return null;
+            }
+            return new MethodKey(file, ControlFlowSummaryIndex.signatureOf(method));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MethodKey)) return false;
+            MethodKey other = (MethodKey) o;
+            return file.equals(other.file) && signature.equals(other.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * file.hashCode() + signature.hashCode();
+        }
+    }
+}
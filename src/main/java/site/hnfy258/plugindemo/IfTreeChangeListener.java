@@ -0,0 +1,44 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 监听PSI树变化，只把受影响的语句子树和所在方法的摘要标记为失效，
+ * 方法重新分析时未改动的兄弟子树可以直接复用
+ */
+public class IfTreeChangeListener extends PsiTreeChangeAdapter {
+
+    @Override
+    public void childAdded(@NotNull PsiTreeChangeEvent event) {
+        invalidate(event.getParent());
+    }
+
+    @Override
+    public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+        invalidate(event.getParent());
+    }
+
+    @Override
+    public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+        invalidate(event.getParent());
+    }
+
+    @Override
+    public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+        invalidate(event.getParent());
+    }
+
+    @Override
+    public void childMoved(@NotNull PsiTreeChangeEvent event) {
+        invalidate(event.getOldParent());
+        invalidate(event.getNewParent());
+    }
+
+    private static void invalidate(PsiElement changed) {
+        AnalyzeIf.invalidateSubtrees(changed);
+        ControlFlowSummary.invalidate(changed);
+    }
+}
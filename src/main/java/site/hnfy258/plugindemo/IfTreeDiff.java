@@ -0,0 +1,174 @@
+package site.hnfy258.plugindemo;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于结构哈希的控制流树对比。
+ * 每一层先按哈希配对完全相同的子树并直接跳过，剩余节点按类型顺序配对后继续向下比较，
+ * 其余的分别记为新增和删除。每个节点只被访问常数次，整体为线性时间
+ */
+public final class IfTreeDiff {
+    public enum Status {
+        UNCHANGED, CHANGED, ADDED, REMOVED
+    }
+
+    /**
+     * 对比结果中的一个节点。未变化的子树不展开，children为空
+     */
+    public static final class Node {
+        private final Status status;
+        private final IFTreeNode before;
+        private final IFTreeNode after;
+        private List<Node> children;
+
+        Node(Status status, @Nullable IFTreeNode before, @Nullable IFTreeNode after) {
+            this.status = status;
+            this.before = before;
+            this.after = after;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        @Nullable
+        public IFTreeNode getBefore() {
+            return before;
+        }
+
+        @Nullable
+        public IFTreeNode getAfter() {
+            return after;
+        }
+
+        /**
+         * 节点自身的标签是否被修改（不考虑子节点）
+         */
+        public boolean isLabelChanged() {
+            return status == Status.CHANGED && before.getNormalizedLabelHash() != after.getNormalizedLabelHash();
+        }
+
+        public List<Node> getChildren() {
+            return children == null ? Collections.emptyList() : children;
+        }
+
+        /**
+         * 本节点或其下是否有变化
+         */
+        public boolean hasChanges() {
+            return status != Status.UNCHANGED;
+        }
+
+        @Override
+        public String toString() {
+            if (isLabelChanged()) {
+                return before.getText() + " → " + after.getText();
+            }
+            return (after != null ? after : before).getText();
+        }
+    }
+
+    private IfTreeDiff() {
+    }
+
+    @NotNull
+    public static Node diff(@NotNull IFTreeNode before, @NotNull IFTreeNode after) {
+        if (before.getStructuralHash() == after.getStructuralHash()) {
+            return new Node(Status.UNCHANGED, before, after);
+        }
+        Node root = new Node(Status.CHANGED, before, after);
+        Deque<Node> work = new ArrayDeque<>();
+        work.push(root);
+        while (!work.isEmpty()) {
+            Node node = work.pop();
+            node.children = diffChildren(node.before.getChildren(), node.after.getChildren());
+            for (Node child : node.children) {
+                if (child.status == Status.CHANGED) {
+                    work.push(child);
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * 对比同一父节点下的两组子节点，结果按修改后的顺序排列，删除的节点插在原来的相对位置
+     */
+    private static List<Node> diffChildren(List<IFTreeNode> before, List<IFTreeNode> after) {
+        int[] matches = new int[after.size()];
+        boolean[] matched = new boolean[before.size()];
+        Status[] statuses = new Status[after.size()];
+
+        // 1. 哈希相同的子树直接配对，重复的结构按出现顺序依次配对
+        Map<Long, Deque<Integer>> byHash = new HashMap<>();
+        for (int i = 0; i < before.size(); i++) {
+            byHash.computeIfAbsent(before.get(i).getStructuralHash(), k -> new ArrayDeque<>()).addLast(i);
+        }
+        for (int i = 0; i < after.size(); i++) {
+            Deque<Integer> candidates = byHash.get(after.get(i).getStructuralHash());
+            matches[i] = -1;
+            if (candidates != null && !candidates.isEmpty()) {
+                matches[i] = candidates.pollFirst();
+                matched[matches[i]] = true;
+                statuses[i] = Status.UNCHANGED;
+            }
+        }
+
+        // 2. 剩下的按节点类型顺序配对，作为修改过的节点继续向下比较
+        Map<IFTreeNode.NodeType, Deque<Integer>> byType = new EnumMap<>(IFTreeNode.NodeType.class);
+        for (int i = 0; i < before.size(); i++) {
+            if (!matched[i]) {
+                byType.computeIfAbsent(before.get(i).getType(), k -> new ArrayDeque<>()).addLast(i);
+            }
+        }
+        for (int i = 0; i < after.size(); i++) {
+            if (matches[i] >= 0) {
+                continue;
+            }
+            Deque<Integer> candidates = byType.get(after.get(i).getType());
+            if (candidates != null && !candidates.isEmpty()) {
+                matches[i] = candidates.pollFirst();
+                matched[matches[i]] = true;
+                statuses[i] = Status.CHANGED;
+            } else {
+                statuses[i] = Status.ADDED;
+            }
+        }
+
+        // 3. 合并输出，未配对的原节点在它之前的配对节点之后输出
+        List<Node> result = new ArrayList<>(Math.max(before.size(), after.size()));
+        int nextRemoved = 0;
+        for (int i = 0; i < after.size(); i++) {
+            if (matches[i] >= 0) {
+                nextRemoved = emitRemoved(before, matched, nextRemoved, matches[i], result);
+                result.add(new Node(statuses[i], before.get(matches[i]), after.get(i)));
+            } else {
+                result.add(new Node(Status.ADDED, null, after.get(i)));
+            }
+        }
+        emitRemoved(before, matched, nextRemoved, before.size(), result);
+        return result;
+    }
+
+    private static int emitRemoved(List<IFTreeNode> before, boolean[] matched, int from, int to, List<Node> result) {
+        int i = from;
+        for (; i < to; i++) {
+            if (!matched[i]) {
+                result.add(new Node(Status.REMOVED, before.get(i), null));
+                // 只输出一次
+                matched[i] = true;
+            }
+        }
+        return Math.max(from, i);
+    }
+}
@@ -0,0 +1,233 @@
+package site.hnfy258.plugindemo;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 把控制流树渲染为带颜色的HTML树形文本。
+ * 每层的颜色标签和连线片段预先生成且不可变，标签一次扫描完成转义，可以在多个线程中同时使用
+ */
+public final class IfTreeHtmlRenderer {
+    private static final Color[] PREDEFINED_COLORS = {
+            new Color(255, 100, 100),  // 亮红色
+            new Color(100, 255, 100),  // 亮绿色
+            new Color(100, 180, 255),  // 亮蓝色
+            new Color(255, 200, 100),  // 亮橙色
+            new Color(200, 100, 255),  // 亮紫色
+            new Color(100, 255, 200),  // 亮青色
+            new Color(255, 130, 200),  // 亮粉色
+            new Color(180, 255, 100),  // 亮黄绿色
+            new Color(255, 255, 150),  // 亮黄色
+            new Color(150, 255, 255)   // 亮蓝绿色
+    };
+
+    // 预先生成的层数，更深的层级按需计算但不缓存
+    private static final int PRECOMPUTED_DEPTHS = 128;
+    private static final String CLOSE_SPAN = "</span>";
+    private static final String BLANK_SEGMENT = "    ";
+
+    private static final String[] OPEN_SPANS = new String[PRECOMPUTED_DEPTHS];
+    private static final String[] BRANCH_SEGMENTS = new String[PRECOMPUTED_DEPTHS];
+    private static final String[] LAST_BRANCH_SEGMENTS = new String[PRECOMPUTED_DEPTHS];
+    private static final String[] PIPE_SEGMENTS = new String[PRECOMPUTED_DEPTHS];
+
+    static {
+        for (int depth = 0; depth < PRECOMPUTED_DEPTHS; depth++) {
+            OPEN_SPANS[depth] = openSpan(depth);
+            BRANCH_SEGMENTS[depth] = OPEN_SPANS[depth] + "├── " + CLOSE_SPAN;
+            LAST_BRANCH_SEGMENTS[depth] = OPEN_SPANS[depth] + "└── " + CLOSE_SPAN;
+            PIPE_SEGMENTS[depth] = OPEN_SPANS[depth] + "│   " + CLOSE_SPAN;
+        }
+    }
+
+    private IfTreeHtmlRenderer() {
+    }
+
+    public static String render(IFTreeNode root) {
+        StringBuilder builder = new StringBuilder(256);
+        render(root, builder);
+        return builder.toString();
+    }
+
+    public static String render(CompactIfTree tree) {
+        StringBuilder builder = new StringBuilder(Math.max(256, tree.size() * 64));
+        render(tree, builder);
+        return builder.toString();
+    }
+
+    /**
+     * 用显式栈做先序遍历：每层记录子节点列表、下一个要输出的下标，以及进入下一层前indent的长度
+     */
+    @SuppressWarnings("unchecked")
+    public static void render(IFTreeNode root, Appendable out) {
+        try {
+            appendLine(out, root.getType(), root.getLabelSource(), root.getLabelStart(), root.getLabelLength(), 0);
+
+            StringBuilder indent = new StringBuilder();
+            List<IFTreeNode>[] levels = new List[16];
+            int[] nextIndex = new int[16];
+            int[] segmentStarts = new int[16];
+            int depth = 1;
+            levels[depth] = root.getChildren();
+
+            while (depth > 0) {
+                List<IFTreeNode> children = levels[depth];
+                if (nextIndex[depth] == children.size()) {
+                    levels[depth] = null;
+                    nextIndex[depth] = 0;
+                    depth--;
+                    indent.setLength(segmentStarts[depth]);
+                    continue;
+                }
+
+                IFTreeNode child = children.get(nextIndex[depth]++);
+                boolean isLast = nextIndex[depth] == children.size();
+                out.append(indent).append(branchSegment(depth, isLast));
+                appendLine(out, child.getType(), child.getLabelSource(), child.getLabelStart(), child.getLabelLength(),
+                        depth);
+
+                if (!child.getChildren().isEmpty()) {
+                    if (depth + 1 == levels.length) {
+                        levels = Arrays.copyOf(levels, levels.length * 2);
+                        nextIndex = Arrays.copyOf(nextIndex, levels.length);
+                        segmentStarts = Arrays.copyOf(segmentStarts, levels.length);
+                    }
+                    segmentStarts[depth] = indent.length();
+                    indent.append(isLast ? BLANK_SEGMENT : pipeSegment(depth));
+                    depth++;
+                    levels[depth] = child.getChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void render(CompactIfTree tree, Appendable out) {
+        try {
+            appendLine(out, tree.getType(0), tree.getLabelSource(0), tree.getLabelStart(0), tree.getLabelLength(0), 0);
+
+            StringBuilder indent = new StringBuilder();
+            int[] segmentStarts = new int[16];
+            int node = tree.getFirstChild(0);
+            int depth = 1;
+
+            while (node != CompactIfTree.NONE) {
+                boolean isLast = tree.getNextSibling(node) == CompactIfTree.NONE;
+                out.append(indent).append(branchSegment(depth, isLast));
+                appendLine(out, tree.getType(node), tree.getLabelSource(node), tree.getLabelStart(node),
+                        tree.getLabelLength(node), depth);
+
+                if (tree.getFirstChild(node) != CompactIfTree.NONE) {
+                    if (depth == segmentStarts.length) {
+                        segmentStarts = Arrays.copyOf(segmentStarts, depth * 2);
+                    }
+                    segmentStarts[depth] = indent.length();
+                    indent.append(isLast ? BLANK_SEGMENT : pipeSegment(depth));
+                    node = tree.getFirstChild(node);
+                    depth++;
+                    continue;
+                }
+
+                // 没有子节点时回溯到最近一个还有后继兄弟的祖先
+                while (node != CompactIfTree.NONE && tree.getNextSibling(node) == CompactIfTree.NONE) {
+                    node = tree.getParent(node);
+                    depth--;
+                    if (depth == 0) {
+                        node = CompactIfTree.NONE;
+                    } else {
+                        indent.setLength(segmentStarts[depth]);
+                    }
+                }
+                if (node != CompactIfTree.NONE) {
+                    node = tree.getNextSibling(node);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void appendLine(Appendable out, IFTreeNode.NodeType type, CharSequence label, int start, int length,
+                                   int depth) throws IOException {
+        out.append(depth < PRECOMPUTED_DEPTHS ? OPEN_SPANS[depth] : openSpan(depth));
+        if (start < 0) {
+            appendEscaped(out, label, 0, label.length());
+        } else {
+            appendEscaped(out, type.prefix, 0, type.prefix.length());
+            appendEscaped(out, label, start, start + length);
+            appendEscaped(out, type.suffix, 0, type.suffix.length());
+        }
+        out.append(CLOSE_SPAN).append('\n');
+    }
+
+    /**
+     * 一次扫描完成HTML转义，不需要转义的连续片段整段写出
+     */
+    static void appendEscaped(Appendable out, CharSequence text, int start, int end) throws IOException {
+        int runStart = start;
+        for (int i = start; i < end; i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '"': replacement = "&quot;"; break;
+                case '\'': replacement = "&#39;"; break;
+                default: continue;
+            }
+            if (i > runStart) {
+                out.append(text, runStart, i);
+            }
+            out.append(replacement);
+            runStart = i + 1;
+        }
+        if (end > runStart) {
+            out.append(text, runStart, end);
+        }
+    }
+
+    static String escapeHtml(CharSequence text) {
+        StringBuilder builder = new StringBuilder(text.length() + 16);
+        try {
+            appendEscaped(builder, text, 0, text.length());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return builder.toString();
+    }
+
+    private static String branchSegment(int depth, boolean isLast) {
+        if (depth < PRECOMPUTED_DEPTHS) {
+            return isLast ? LAST_BRANCH_SEGMENTS[depth] : BRANCH_SEGMENTS[depth];
+        }
+        return openSpan(depth) + (isLast ? "└── " : "├── ") + CLOSE_SPAN;
+    }
+
+    private static String pipeSegment(int depth) {
+        return depth < PRECOMPUTED_DEPTHS ? PIPE_SEGMENTS[depth] : openSpan(depth) + "│   " + CLOSE_SPAN;
+    }
+
+    private static String openSpan(int depth) {
+        Color color = getColorForDepth(depth);
+        return "<span style=\"color:rgb(" + color.getRed() + "," + color.getGreen() + "," + color.getBlue() + ")\">";
+    }
+
+    /**
+     * 获取指定深度的颜色，超出预定义颜色的层级用深度作种子生成固定的随机亮色
+     */
+    static Color getColorForDepth(int depth) {
+        if (depth < PREDEFINED_COLORS.length) {
+            return PREDEFINED_COLORS[depth];
+        }
+        Random random = new Random(depth);
+        int r = 100 + random.nextInt(156); // 100-255范围，确保在黑色背景上足够亮
+        int g = 100 + random.nextInt(156);
+        int b = 100 + random.nextInt(156);
+        return new Color(r, g, b);
+    }
+}
@@ -0,0 +1,158 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.containers.Interner;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 所有控制流树共用的驻留池。
+ * 每批新节点的区间标签拼成一个字符串，节点仍以区间引用其中的一段，只在显示时取出文本；固定文本通过弱引用驻留池去重。
+ * 节点数不超过上限（visualizeif.intern.maxSubtreeNodes）的子树按结构哈希驻留，
+ * 重复的条件、catch和default只保留一份；不再被任何树引用的条目由GC回收。
+ * AnalyzeIf在记录子树时就地驻留新建的节点，复用的子树已经是驻留过的，不会再次遍历。
+ * 驻留后的节点会被多棵树共享，不能再修改
+ */
+public final class IfTreeInterner {
+    private static final String MAX_SUBTREE_NODES_KEY = "visualizeif.intern.maxSubtreeNodes";
+    private static final int DEFAULT_MAX_SUBTREE_NODES = 16;
+
+    private final Interner<String> labels = Interner.createWeakInterner();
+    private final Map<Long, IFTreeNode> subtrees = ContainerUtil.createConcurrentWeakValueMap();
+
+    public static IfTreeInterner getInstance() {
+        return ApplicationManager.getApplication().getService(IfTreeInterner.class);
+    }
+
+    /**
+     * 就地驻留新建的节点。nodes按创建顺序排列，父节点总在子节点之前，逆序处理时每个节点的子节点都已驻留；
+     * 其他子节点必须是之前驻留过的。返回被池中已有节点取代的节点及其替代者，
+     * nodes之外的父节点由调用方据此更新
+     */
+    @NotNull
+    public Map<IFTreeNode, IFTreeNode> internNew(@NotNull List<IFTreeNode> nodes) {
+        int maxSubtreeNodes = Registry.intValue(MAX_SUBTREE_NODES_KEY, DEFAULT_MAX_SUBTREE_NODES);
+        Map<IFTreeNode, IFTreeNode> replaced = new IdentityHashMap<>();
+        detachLabels(nodes);
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            IFTreeNode node = nodes.get(i);
+            int size = 1;
+            List<IFTreeNode> children = node.getChildren();
+            for (int c = 0; c < children.size(); c++) {
+                IFTreeNode child = children.get(c);
+                IFTreeNode canonical = replaced.get(child);
+                if (canonical != null) {
+                    node.setChild(c, canonical);
+                    child = canonical;
+                }
+                size += Math.max(1, child.getInternedSize());
+            }
+            node.setInternedSize(size);
+            if (size <= maxSubtreeNodes) {
+                IFTreeNode canonical = canonical(node);
+                if (canonical != node) {
+                    replaced.put(node, canonical);
+                }
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * 这一批节点的区间标签依次拼接成一个字符串，各节点改为引用其中自己的一段：每批只分配一个字符串，
+     * 不为每个节点复制标签，节点也不再持有整个文件快照
+     */
+    private void detachLabels(List<IFTreeNode> nodes) {
+        int total = 0;
+        for (IFTreeNode node : nodes) {
+            if (node.getLabelStart() >= 0) {
+                total += node.getLabelLength();
+            }
+        }
+        StringBuilder builder = new StringBuilder(total);
+        for (IFTreeNode node : nodes) {
+            int start = node.getLabelStart();
+            if (start >= 0) {
+                builder.append(node.getLabelSource(), start, start + node.getLabelLength());
+            }
+        }
+        String text = builder.toString();
+        int offset = 0;
+        for (IFTreeNode node : nodes) {
+            if (node.getLabelStart() < 0) {
+                node.internLabel(labels::intern);
+            } else {
+                node.rebaseLabel(text, offset);
+                offset += node.getLabelLength();
+            }
+        }
+    }
+
+    /**
+     * 当前驻留的子树数量，包含尚未被GC回收的条目
+     */
+    public int getSubtreeCount() {
+        return subtrees.size();
+    }
+
+    /**
+     * 树中不属于驻留池的节点数，池中的子树被多棵树共享，只按一个引用计算
+     */
+    public static int unsharedSize(@NotNull IFTreeNode root) {
+        int size = 0;
+        Deque<IFTreeNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            IFTreeNode node = stack.pop();
+            size++;
+            if (!node.isShared()) {
+                for (IFTreeNode child : node.getChildren()) {
+                    stack.push(child);
+                }
+            }
+        }
+        return size;
+    }
+
+    private IFTreeNode canonical(IFTreeNode node) {
+        // 放入池中之前先算好哈希，共享节点不会再被写入
+        Long hash = node.getStructuralHash();
+        IFTreeNode existing = subtrees.get(hash);
+        if (existing == null) {
+            existing = subtrees.putIfAbsent(hash, node);
+            if (existing == null) {
+                node.markShared();
+                return node;
+            }
+        }
+        // 哈希冲突或只有空白不同时保留自己的节点
+        return sameNode(existing, node) ? existing : node;
+    }
+
+    /**
+     * 子节点都已驻留，只需比较引用；标签来自不同批次的文本，逐字符比较
+     */
+    private static boolean sameNode(IFTreeNode a, IFTreeNode b) {
+        if (a.getType() != b.getType() || !a.hasSameLabel(b)) {
+            return false;
+        }
+        List<IFTreeNode> aChildren = a.getChildren();
+        List<IFTreeNode> bChildren = b.getChildren();
+        if (aChildren.size() != bChildren.size()) {
+            return false;
+        }
+        for (int i = 0; i < aChildren.size(); i++) {
+            if (aChildren.get(i) != bChildren.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package site.hnfy258.plugindemo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 控制流树的复杂度指标：节点数、最大嵌套深度、分支数、圈复杂度以及每种节点类型的数量
+ */
+public final class IfTreeMetrics {
+    private static final IFTreeNode.NodeType[] TYPES = IFTreeNode.NodeType.values();
+
+    private final int nodeCount;
+    private final int maxDepth;
+    private final int branchCount;
+    private final int[] typeCounts;
+
+    IfTreeMetrics(int nodeCount, int maxDepth, int branchCount, int[] typeCounts) {
+        this.nodeCount = nodeCount;
+        this.maxDepth = maxDepth;
+        this.branchCount = branchCount;
+        this.typeCounts = typeCounts;
+    }
+
+    /**
+     * 遍历整棵树计算指标，用于构建时没有顺带计算指标的树
+     */
+    public static IfTreeMetrics of(IFTreeNode root) {
+        Accumulator accumulator = new Accumulator();
+        accumulator.addSubtree(root, 0);
+        return accumulator.build();
+    }
+
+    /**
+     * 会产生一条额外执行路径的节点：条件、循环、非default的case和catch
+     */
+    public static boolean isBranch(IFTreeNode.NodeType type) {
+        switch (type) {
+            case IF:
+            case ELSE_IF:
+            case WHILE:
+            case DO_WHILE:
+            case FOR:
+            case CASE:
+            case CATCH:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getBranchCount() {
+        return branchCount;
+    }
+
+    public int getCount(IFTreeNode.NodeType type) {
+        return typeCounts[type.ordinal()];
+    }
+
+    /**
+     * 圈复杂度，近似为分支数加一
+     */
+    public int getCyclomaticComplexity() {
+        return branchCount + 1;
+    }
+
+    /**
+     * 边构建边累计的指标，节点按它在树中的深度（根为0）逐个计入。
+     * open/close成对嵌套使用，close返回期间计入的部分，最大深度相对于调用方给出的基准深度
+     */
+    static final class Accumulator {
+        private int nodeCount;
+        private int maxDepth;
+        private int branchCount;
+        private final int[] typeCounts = new int[TYPES.length];
+        private final Deque<Frame> frames = new ArrayDeque<>();
+
+        void add(IFTreeNode.NodeType type, int depth) {
+            nodeCount++;
+            maxDepth = Math.max(maxDepth, depth);
+            typeCounts[type.ordinal()]++;
+            if (isBranch(type)) {
+                branchCount++;
+            }
+            Frame frame = frames.peek();
+            if (frame != null) {
+                frame.maxDepth = Math.max(frame.maxDepth, depth);
+            }
+        }
+
+        /**
+         * 计入一棵子树已汇总好的指标，metrics的最大深度是相对于baseDepth的
+         */
+        void addRelative(IfTreeMetrics metrics, int baseDepth) {
+            if (metrics.nodeCount == 0) {
+                return;
+            }
+            nodeCount += metrics.nodeCount;
+            branchCount += metrics.branchCount;
+            for (int i = 0; i < typeCounts.length; i++) {
+                typeCounts[i] += metrics.typeCounts[i];
+            }
+            int depth = baseDepth + metrics.maxDepth;
+            maxDepth = Math.max(maxDepth, depth);
+            Frame frame = frames.peek();
+            if (frame != null) {
+                frame.maxDepth = Math.max(frame.maxDepth, depth);
+            }
+        }
+
+        /**
+         * 开始记录一段新计入的节点
+         */
+        void open() {
+            frames.push(new Frame(nodeCount, branchCount, typeCounts.clone()));
+        }
+
+        /**
+         * 结束最近一次open，返回期间计入的节点的指标，最大深度减去baseDepth
+         */
+        IfTreeMetrics close(int baseDepth) {
+            Frame frame = frames.pop();
+            Frame outer = frames.peek();
+            if (outer != null) {
+                outer.maxDepth = Math.max(outer.maxDepth, frame.maxDepth);
+            }
+            int[] counts = typeCounts.clone();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] -= frame.typeCounts[i];
+            }
+            int count = nodeCount - frame.nodeCount;
+            return new IfTreeMetrics(count, count == 0 ? 0 : frame.maxDepth - baseDepth,
+                    branchCount - frame.branchCount, counts);
+        }
+
+        /**
+         * 计入一棵已经构建好的子树，subtree本身的深度为depth
+         */
+        void addSubtree(IFTreeNode subtree, int depth) {
+            Deque<IFTreeNode> nodes = new ArrayDeque<>();
+            Deque<Integer> depths = new ArrayDeque<>();
+            nodes.push(subtree);
+            depths.push(depth);
+            while (!nodes.isEmpty()) {
+                IFTreeNode node = nodes.pop();
+                int nodeDepth = depths.pop();
+                add(node.getType(), nodeDepth);
+                for (IFTreeNode child : node.getChildren()) {
+                    nodes.push(child);
+                    depths.push(nodeDepth + 1);
+                }
+            }
+        }
+
+        IfTreeMetrics build() {
+            return new IfTreeMetrics(nodeCount, maxDepth, branchCount, typeCounts.clone());
+        }
+
+        private static final class Frame {
+            final int nodeCount;
+            final int branchCount;
+            final int[] typeCounts;
+            int maxDepth = Integer.MIN_VALUE;
+
+            Frame(int nodeCount, int branchCount, int[] typeCounts) {
+                this.nodeCount = nodeCount;
+                this.branchCount = branchCount;
+                this.typeCounts = typeCounts;
+            }
+        }
+    }
+}
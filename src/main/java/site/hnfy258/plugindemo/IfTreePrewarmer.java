@@ -0,0 +1,121 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.fileEditor.TextEditor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.Alarm;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 文件高亮完成后，在后台为其中所有方法预先生成控制流树，之后点击任意行标记都能直接命中缓存。
+ * 高亮结束的文件先登记下来，最后一次高亮结束后安静QUIET_MS才统一预热；期间文件又被修改说明仍在输入，跳过它，
+ * 等下一次高亮结束再登记。所有文件共用一个单线程执行器，文件未修改时不再重复预热，
+ * 文件关闭或项目关闭时清除对应的记录
+ */
+public class IfTreePrewarmer implements DaemonCodeAnalyzer.DaemonListener {
+    private static final int QUIET_MS = 1_000;
+    private static final ExecutorService EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("VisualizeIF Prewarm", 1);
+
+    private final Project project;
+    private final IfTreeCacheService cacheService;
+    private final Alarm alarm;
+    // 等待预热的文件及登记时文档的修改戳
+    private final Map<VirtualFile, Long> pending = new ConcurrentHashMap<>();
+    // 每个文件上次预热时的修改戳
+    private final Map<VirtualFile, Long> prewarmedStamps = new ConcurrentHashMap<>();
+
+    public IfTreePrewarmer(@NotNull Project project) {
+        this.project = project;
+        this.cacheService = IfTreeCacheService.getInstance(project);
+        this.alarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, cacheService);
+        project.getMessageBus().connect(cacheService).subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER,
+                new FileEditorManagerListener() {
+                    @Override
+                    public void fileClosed(@NotNull FileEditorManager source, @NotNull VirtualFile file) {
+                        if (!source.isFileOpen(file)) {
+                            pending.remove(file);
+                            prewarmedStamps.remove(file);
+                        }
+                    }
+                });
+        Disposer.register(cacheService, () -> {
+            pending.clear();
+            prewarmedStamps.clear();
+        });
+    }
+
+    @Override
+    public void daemonFinished(@NotNull Collection<? extends FileEditor> fileEditors) {
+        boolean added = false;
+        for (FileEditor fileEditor : fileEditors) {
+            VirtualFile file = fileEditor.getFile();
+            if (fileEditor instanceof TextEditor && file != null && file.getFileType() == JavaFileType.INSTANCE) {
+                pending.put(file, documentStamp(file));
+                added = true;
+            }
+        }
+        if (added) {
+            // 每次高亮结束都重新计时，连续输入时不会预热
+            alarm.cancelAllRequests();
+            alarm.addRequest(this::flush, QUIET_MS);
+        }
+    }
+
+    private void flush() {
+        List<VirtualFile> files = new ArrayList<>(pending.keySet());
+        for (VirtualFile file : files) {
+            Long stamp = pending.remove(file);
+            // 登记之后文档又被修改，用户还在输入，等下一次高亮结束
+            if (stamp != null && stamp == documentStamp(file)) {
+                schedule(file);
+            }
+        }
+    }
+
+    private static long documentStamp(VirtualFile file) {
+        Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+        return document == null ? file.getModificationStamp() : document.getModificationStamp();
+    }
+
+    private void schedule(VirtualFile file) {
+        ReadAction.nonBlocking(() -> {
+                    PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+                    if (psiFile == null) {
+                        return;
+                    }
+                    long stamp = psiFile.getModificationStamp();
+                    Long prewarmed = prewarmedStamps.get(file);
+                    if (prewarmed != null && prewarmed == stamp) {
+                        return;
+                    }
+                    cacheService.prewarm(psiFile);
+                    // 预热期间文件被关闭时不再记录
+                    if (FileEditorManager.getInstance(project).isFileOpen(file)) {
+                        prewarmedStamps.put(file, stamp);
+                    }
+                })
+                .coalesceBy(this, file)
+                .expireWith(cacheService)
+                .submit(EXECUTOR);
+    }
+}
@@ -0,0 +1,124 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiIdentifier;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.Alarm;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 光标停在方法内或鼠标悬停在行标记上时，提前在后台分析该方法并放入缓存，点击时弹窗可以直接显示。
+ * 请求经过去抖，新的请求会取消尚未开始或正在进行的上一个分析
+ */
+public final class IfTreeSpeculativeScheduler implements Disposable {
+    private static final int CARET_DELAY_MS = 400;
+    private static final int HOVER_DELAY_MS = 150;
+    private static final ExecutorService EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("VisualizeIF Speculative", 1);
+
+    private final Project project;
+    private final Alarm alarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    // 每个请求一个Disposable，分析随它失效；cancel先于提交发生时，提交的分析也会立即失效
+    private volatile Disposable request;
+
+    public IfTreeSpeculativeScheduler(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public static IfTreeSpeculativeScheduler getInstance(@NotNull Project project) {
+        return project.getService(IfTreeSpeculativeScheduler.class);
+    }
+
+    /**
+     * 光标停在offset处：预热包含该位置的方法
+     */
+    public void caretMoved(@NotNull Editor editor, int offset) {
+        schedule(editor.getDocument(), CARET_DELAY_MS, false, offset);
+    }
+
+    /**
+     * 鼠标悬停在某一行的行标记区域：预热在这一行声明的方法
+     */
+    public void gutterHovered(@NotNull Editor editor, int line) {
+        Document document = editor.getDocument();
+        if (line < 0 || line >= document.getLineCount()) {
+            return;
+        }
+        schedule(document, HOVER_DELAY_MS, true, line);
+    }
+
+    /**
+     * 用户离开后取消等待中的请求和正在进行的分析
+     */
+    public void cancel() {
+        alarm.cancelAllRequests();
+        Disposable current = request;
+        if (current != null) {
+            Disposer.dispose(current);
+        }
+    }
+
+    private void schedule(Document document, int delay, boolean byLine, int position) {
+        cancel();
+        Disposable current = Disposer.newDisposable("VisualizeIF speculative analysis");
+        Disposer.register(this, current);
+        request = current;
+        alarm.addRequest(() -> ReadAction.nonBlocking(() -> {
+                    PsiFile file = PsiDocumentManager.getInstance(project).getPsiFile(document);
+                    if (!(file instanceof PsiJavaFile)) {
+                        return;
+                    }
+                    PsiMethod method = byLine ? methodDeclaredOnLine(file, document, position)
+                            : PsiTreeUtil.getParentOfType(file.findElementAt(position), PsiMethod.class);
+                    if (method == null || method.getBody() == null || !ControlFlowSummary.of(method).hasControlFlow()) {
+                        return;
+                    }
+                    IfTreeCacheService cacheService = IfTreeCacheService.getInstance(project);
+                    if (!cacheService.isCached(method)) {
+                        cacheService.getIfTree(method, ControlFlowDiagnostics.Stage.BACKGROUND_BUILD);
+                    }
+                })
+                .withDocumentsCommitted(project)
+                .expireWith(current)
+                .submit(EXECUTOR), delay);
+    }
+
+    /**
+     * 行标记放在方法名标识符上，查找名称位于这一行的方法
+     */
+    @Nullable
+    private static PsiMethod methodDeclaredOnLine(PsiFile file, Document document, int line) {
+        int end = document.getLineEndOffset(line);
+        for (int offset = document.getLineStartOffset(line); offset < end; ) {
+            PsiElement element = file.findElementAt(offset);
+            if (element == null) {
+                return null;
+            }
+            if (element instanceof PsiIdentifier && element.getParent() instanceof PsiMethod
+                    && ((PsiMethod) element.getParent()).getNameIdentifier() == element) {
+                return (PsiMethod) element.getParent();
+            }
+            offset = Math.max(offset + 1, element.getTextRange().getEndOffset());
+        }
+        return null;
+    }
+
+    @Override
+    public void dispose() {
+        cancel();
+    }
+}
@@ -0,0 +1,133 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorFontType;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.ui.ColoredTreeCellRenderer;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.treeStructure.Tree;
+import com.intellij.util.ui.JBUI;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.awt.*;
+
+/**
+ * 控制流树的树形查看器。
+ * 模型直接包装缓存中的CompactIfTree，节点就是数组下标，只有展开的节点才会被JTree访问；
+ * 固定行高的largeModel模式下只布局和绘制可见行，开销与可见内容成正比
+ */
+public class IfTreeViewer extends JPanel {
+    // 单行标签的最大长度，条件中的多行lambda等超长文本截断显示
+    private static final int MAX_LABEL_LENGTH = 200;
+
+    private final Tree tree;
+
+    public IfTreeViewer(@NotNull CompactIfTree root) {
+        super(new BorderLayout());
+
+        LazyTreeModel model = new LazyTreeModel(root);
+        tree = new Tree(model);
+        tree.setRootVisible(true);
+        tree.setShowsRootHandles(true);
+        tree.setLargeModel(true);
+        tree.setRowHeight(JBUI.scale(20));
+        tree.setFont(EditorColorsManager.getInstance().getGlobalScheme().getFont(EditorFontType.PLAIN));
+        tree.setCellRenderer(new DepthColorRenderer(root));
+        // 只展开第一层，更深的层级由用户按需展开
+        tree.expandPath(new TreePath(model.getRoot()));
+
+        JBScrollPane scrollPane = new JBScrollPane(tree);
+        scrollPane.setBorder(JBUI.Borders.empty());
+        add(scrollPane, BorderLayout.CENTER);
+    }
+
+    public Tree getTree() {
+        return tree;
+    }
+
+    /**
+     * 只读的懒加载模型，节点值是CompactIfTree中的下标，子节点下标连续，各项查询都是O(1)
+     */
+    private static class LazyTreeModel implements TreeModel {
+        private final CompactIfTree tree;
+
+        LazyTreeModel(CompactIfTree tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public Object getRoot() {
+            return tree.getRoot();
+        }
+
+        @Override
+        public Object getChild(Object parent, int index) {
+            return tree.getChild((Integer) parent, index);
+        }
+
+        @Override
+        public int getChildCount(Object parent) {
+            return tree.getChildCount((Integer) parent);
+        }
+
+        @Override
+        public boolean isLeaf(Object node) {
+            return tree.getChildCount((Integer) node) == 0;
+        }
+
+        @Override
+        public int getIndexOfChild(Object parent, Object child) {
+            if (parent == null || child == null) {
+                return -1;
+            }
+            int node = (Integer) child;
+            return tree.getParent(node) == (Integer) parent ? tree.getIndexInParent(node) : -1;
+        }
+
+        @Override
+        public void valueForPathChanged(TreePath path, Object newValue) {
+        }
+
+        @Override
+        public void addTreeModelListener(TreeModelListener l) {
+        }
+
+        @Override
+        public void removeTreeModelListener(TreeModelListener l) {
+        }
+    }
+
+    /**
+     * 与HTML视图一致，按节点深度着色
+     */
+    private static class DepthColorRenderer extends ColoredTreeCellRenderer {
+        private final CompactIfTree ifTree;
+
+        DepthColorRenderer(CompactIfTree ifTree) {
+            this.ifTree = ifTree;
+        }
+
+        @Override
+        public void customizeCellRenderer(@NotNull JTree tree, Object value, boolean selected, boolean expanded,
+                                          boolean leaf, int row, boolean hasFocus) {
+            if (!(value instanceof Integer)) {
+                return;
+            }
+            TreePath path = tree.getPathForRow(row);
+            int depth = path == null ? 0 : path.getPathCount() - 1;
+            Color color = IfTreeHtmlRenderer.getColorForDepth(depth);
+            int node = (Integer) value;
+            String text = StringUtil.collapseWhiteSpace(ifTree.getText(node, MAX_LABEL_LENGTH));
+            if (ifTree.getType(node) == IFTreeNode.NodeType.TRUNCATED) {
+                append(text, SimpleTextAttributes.GRAYED_ITALIC_ATTRIBUTES);
+                return;
+            }
+            append(text, new SimpleTextAttributes(SimpleTextAttributes.STYLE_PLAIN, color));
+        }
+    }
+}
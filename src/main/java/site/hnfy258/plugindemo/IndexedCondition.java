@@ -0,0 +1,104 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 条件索引中的一个分支节点：节点类型和标签在文件中的范围。
+ * 每个词都会保存一份，不存文本和方法签名，展示时再从文件内容和 {@link ControlFlowSummaryIndex} 中取
+ */
+public final class IndexedCondition {
+    private static final IFTreeNode.NodeType[] TYPES = IFTreeNode.NodeType.values();
+
+    private final IFTreeNode.NodeType type;
+    private final int offset;
+    private final int length;
+
+    IndexedCondition(IFTreeNode.NodeType type, int offset, int length) {
+        this.type = type;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public IFTreeNode.NodeType getType() {
+        return type;
+    }
+
+    /**
+     * 条件、选择表达式或catch参数在文件中的起始位置
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * 带节点类型前后缀的标签，如 if (x == null)；text是建索引时的文件内容，范围超出时返回null
+     */
+    @Nullable
+    String getText(CharSequence text) {
+        if (offset + length > text.length()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(length + 16);
+        IFTreeNode.appendLabel(builder, type, text, offset, length, Integer.MAX_VALUE);
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IndexedCondition)) return false;
+        IndexedCondition other = (IndexedCondition) o;
+        return type == other.type && offset == other.offset && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * offset + length) + type.hashCode();
+    }
+
+    /**
+     * 同一文件中含有某个词的所有节点，按位置排序，位置存为与前一个的差值；
+     * 节点类型按序号存储，NodeType顺序变化时需要提升索引版本
+     */
+    static final class ListExternalizer implements DataExternalizer<List<IndexedCondition>> {
+        @Override
+        public void save(@NotNull DataOutput out, List<IndexedCondition> value) throws IOException {
+            DataInputOutputUtil.writeINT(out, value.size());
+            int previous = 0;
+            for (IndexedCondition condition : value) {
+                DataInputOutputUtil.writeINT(out, condition.type.ordinal());
+                DataInputOutputUtil.writeINT(out, condition.offset - previous);
+                DataInputOutputUtil.writeINT(out, condition.length);
+                previous = condition.offset;
+            }
+        }
+
+        @Override
+        public List<IndexedCondition> read(@NotNull DataInput in) throws IOException {
+            int size = DataInputOutputUtil.readINT(in);
+            List<IndexedCondition> result = new ArrayList<>(size);
+            int offset = 0;
+            for (int i = 0; i < size; i++) {
+                int ordinal = DataInputOutputUtil.readINT(in);
+                offset += DataInputOutputUtil.readINT(in);
+                int length = DataInputOutputUtil.readINT(in);
+                result.add(new IndexedCondition(ordinal < TYPES.length ? TYPES[ordinal] : IFTreeNode.NodeType.STATEMENT,
+                        offset, length));
+            }
+            return result;
+        }
+    }
+}
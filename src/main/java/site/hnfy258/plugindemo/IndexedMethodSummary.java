@@ -0,0 +1,133 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 索引中保存的单个方法摘要：位置和范围、最大嵌套深度、各类型节点数量和近似圈复杂度。
+ * 只保存由文件内容决定的数据，同样的内容总是得到同样的值
+ */
+public final class IndexedMethodSummary {
+    private static final IFTreeNode.NodeType[] TYPES = IFTreeNode.NodeType.values();
+
+    private final int offset;
+    private final int endOffset;
+    private final int maxDepth;
+    private final int cyclomaticComplexity;
+    private final int[] typeCounts;
+
+    IndexedMethodSummary(int offset, int endOffset, int maxDepth, int cyclomaticComplexity, int[] typeCounts) {
+        this.offset = offset;
+        this.endOffset = endOffset;
+        this.maxDepth = maxDepth;
+        this.cyclomaticComplexity = cyclomaticComplexity;
+        this.typeCounts = typeCounts;
+    }
+
+    static IndexedMethodSummary of(int offset, int endOffset, IfTreeMetrics metrics) {
+        int[] typeCounts = new int[TYPES.length];
+        for (IFTreeNode.NodeType type : TYPES) {
+            typeCounts[type.ordinal()] = metrics.getCount(type);
+        }
+        return new IndexedMethodSummary(offset, endOffset, metrics.getMaxDepth(), metrics.getCyclomaticComplexity(),
+                typeCounts);
+    }
+
+    /**
+     * 还原为与AnalyzeIf结果相同形式的指标
+     */
+    IfTreeMetrics toMetrics() {
+        int nodeCount = 0;
+        for (int count : typeCounts) {
+            nodeCount += count;
+        }
+        return new IfTreeMetrics(nodeCount, maxDepth, cyclomaticComplexity - 1, typeCounts.clone());
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * 方法声明的结束位置，与getOffset()一起用于判断某个位置属于哪个方法
+     */
+    public int getEndOffset() {
+        return endOffset;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getCyclomaticComplexity() {
+        return cyclomaticComplexity;
+    }
+
+    public int getCount(IFTreeNode.NodeType type) {
+        return type.ordinal() < typeCounts.length ? typeCounts[type.ordinal()] : 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IndexedMethodSummary)) return false;
+        IndexedMethodSummary other = (IndexedMethodSummary) o;
+        return offset == other.offset && endOffset == other.endOffset && maxDepth == other.maxDepth
+                && cyclomaticComplexity == other.cyclomaticComplexity && Arrays.equals(typeCounts, other.typeCounts);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * offset + maxDepth) + Arrays.hashCode(typeCounts);
+    }
+
+    /**
+     * 节点类型按序号存储，只写出非零的计数；NodeType顺序变化时需要提升索引版本
+     */
+    static final class Externalizer implements DataExternalizer<IndexedMethodSummary> {
+        @Override
+        public void save(@NotNull DataOutput out, IndexedMethodSummary value) throws IOException {
+            DataInputOutputUtil.writeINT(out, value.offset);
+            DataInputOutputUtil.writeINT(out, value.endOffset - value.offset);
+            DataInputOutputUtil.writeINT(out, value.maxDepth);
+            DataInputOutputUtil.writeINT(out, value.cyclomaticComplexity);
+            int nonZero = 0;
+            for (int count : value.typeCounts) {
+                if (count != 0) {
+                    nonZero++;
+                }
+            }
+            DataInputOutputUtil.writeINT(out, nonZero);
+            for (int i = 0; i < value.typeCounts.length; i++) {
+                if (value.typeCounts[i] != 0) {
+                    DataInputOutputUtil.writeINT(out, i);
+                    DataInputOutputUtil.writeINT(out, value.typeCounts[i]);
+                }
+            }
+        }
+
+        @Override
+        public IndexedMethodSummary read(@NotNull DataInput in) throws IOException {
+            int offset = DataInputOutputUtil.readINT(in);
+            int endOffset = offset + DataInputOutputUtil.readINT(in);
+            int maxDepth = DataInputOutputUtil.readINT(in);
+            int cyclomaticComplexity = DataInputOutputUtil.readINT(in);
+            int[] typeCounts = new int[TYPES.length];
+            int nonZero = DataInputOutputUtil.readINT(in);
+            for (int i = 0; i < nonZero; i++) {
+                int ordinal = DataInputOutputUtil.readINT(in);
+                int count = DataInputOutputUtil.readINT(in);
+                if (ordinal < typeCounts.length) {
+                    typeCounts[ordinal] = count;
+                }
+            }
+            return new IndexedMethodSummary(offset, endOffset, maxDepth, cyclomaticComplexity, typeCounts);
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.lang.LighterAST;
+import com.intellij.lang.LighterASTNode;
+import com.intellij.lang.LighterASTTokenNode;
+import com.intellij.lang.LighterLazyParseableNode;
+import com.intellij.lang.java.JavaLanguage;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.pom.java.LanguageLevel;
+import com.intellij.psi.JavaTokenType;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.impl.source.JavaLightTreeUtil;
+import com.intellij.psi.impl.source.tree.ElementType;
+import com.intellij.psi.impl.source.tree.JavaElementType;
+import com.intellij.psi.impl.source.tree.LightTreeUtil;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.util.PsiUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 基于LighterAST的控制流分析，生成与 {@link AnalyzeIf} 相同结构的IFTreeNode树。
+ * 不需要构建PSI，可以在索引过程中使用；标签同样只记录文件内容中的区间
+ */
+public class LighterAstAnalyzeIf {
+    private final LighterAST tree;
+    private final CharSequence source;
+    // 待处理的语句和它们的父节点；pending保存当前语句安排的子任务，逆序压栈以保持源码顺序
+    private final Deque<LighterASTNode> workStatements = new ArrayDeque<>();
+    private final Deque<IFTreeNode> workParents = new ArrayDeque<>();
+    private final List<LighterASTNode> pendingStatements = new ArrayList<>();
+    private final List<IFTreeNode> pendingParents = new ArrayList<>();
+
+    public LighterAstAnalyzeIf(@NotNull LighterAST tree, @NotNull CharSequence source) {
+        this.tree = tree;
+        this.source = source;
+    }
+
+    /**
+     * 从文本解析出LighterAST，不构建AST节点，方法体仍按需懒解析。
+     * 解析经过一个不可见的轻量PsiFile，懒解析的代码块展开时需要通过它找到所属文件和语言级别
+     */
+    public static LighterAstAnalyzeIf parse(@NotNull Project project, @NotNull CharSequence text,
+                                            @NotNull LanguageLevel languageLevel) {
+        PsiFile file = PsiFileFactory.getInstance(project)
+                .createFileFromText("_VisualizeIF.java", JavaLanguage.INSTANCE, text, false, false);
+        file.putUserData(PsiUtil.FILE_LANGUAGE_LEVEL_KEY, languageLevel);
+        return new LighterAstAnalyzeIf(file.getNode().getLighterAST(), text);
+    }
+
+    /**
+     * 文件中的一个方法及其控制流树
+     */
+    public static final class MethodTree {
+        private final String signature;
+        private final int offset;
+        private final int endOffset;
+        private final IFTreeNode tree;
+        private final long analysisNanos;
+
+        MethodTree(String signature, int offset, int endOffset, IFTreeNode tree, long analysisNanos) {
+            this.signature = signature;
+            this.offset = offset;
+            this.endOffset = endOffset;
+            this.tree = tree;
+            this.analysisNanos = analysisNanos;
+        }
+
+        /**
+         * 形如 pkg.Outer.Inner#name(Type1,Type2)，用于展示和区分重载。
+         * 匿名类按在外层类中出现的顺序记为$1、$2，类型中的空白被去掉，签名不含位置信息，
+         * 与 {@link ControlFlowSummaryIndex#signatureOf} 对PsiMethod算出的一致
+         */
+        public String getSignature() {
+            return signature;
+        }
+
+        /**
+         * 方法名标识符的位置，与PsiMethod.getTextOffset()一致
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * 方法声明的结束位置
+         */
+        public int getEndOffset() {
+            return endOffset;
+        }
+
+        public IFTreeNode getTree() {
+            return tree;
+        }
+
+        public long getAnalysisNanos() {
+            return analysisNanos;
+        }
+    }
+
+    /**
+     * 分析文件中所有带方法体的方法，包括内部类和匿名类中的方法
+     */
+    public List<MethodTree> analyzeFile() {
+        List<MethodTree> result = new ArrayList<>();
+        LighterASTNode root = tree.getRoot();
+        String packageName = packageName(root);
+
+        // 同时保存节点、它所在类的名称和该类中已出现的匿名类个数
+        Deque<LighterASTNode> nodes = new ArrayDeque<>();
+        Deque<String> owners = new ArrayDeque<>();
+        Deque<int[]> anonymousCounts = new ArrayDeque<>();
+        nodes.push(root);
+        owners.push(packageName);
+        anonymousCounts.push(new int[1]);
+        while (!nodes.isEmpty()) {
+            LighterASTNode node = nodes.pop();
+            String owner = owners.pop();
+            int[] anonymousCount = anonymousCounts.pop();
+            IElementType type = node.getTokenType();
+
+            if (type == JavaElementType.CLASS) {
+                owner = qualify(owner, nameOf(node));
+                anonymousCount = new int[1];
+            } else if (type == JavaElementType.ANONYMOUS_CLASS) {
+                owner = qualify(owner, "$" + ++anonymousCount[0]);
+                anonymousCount = new int[1];
+            } else if (type == JavaElementType.METHOD) {
+                long start = System.nanoTime();
+                IFTreeNode methodTree = analyzeMethod(node);
+                if (methodTree != null) {
+                    result.add(new MethodTree(owner + "#" + signature(node), nameOffset(node), node.getEndOffset(), methodTree,
+                            System.nanoTime() - start));
+                }
+            }
+
+            List<LighterASTNode> children = tree.getChildren(node);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                LighterASTNode child = children.get(i);
+                // 普通词法单元不会包含类或方法；懒解析的代码块也是词法单元，但需要展开
+                if (child instanceof LighterASTTokenNode && !(child instanceof LighterLazyParseableNode)) {
+                    continue;
+                }
+                nodes.push(child);
+                owners.push(owner);
+                anonymousCounts.push(anonymousCount);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 分析单个METHOD节点，没有方法体时返回null
+     */
+    @Nullable
+    public IFTreeNode analyzeMethod(@NotNull LighterASTNode method) {
+        LighterASTNode body = LightTreeUtil.firstChildOfType(tree, method, JavaElementType.CODE_BLOCK);
+        if (body == null) {
+            return null;
+        }
+        IFTreeNode rootNode = new IFTreeNode(IFTreeNode.NodeType.METHOD, methodLabel(method));
+        analyzeCodeBlock(body, rootNode);
+        run();
+        return rootNode;
+    }
+
+    /**
+     * 依次处理工作栈中的语句。每条语句只创建自己的节点，嵌套语句作为新任务压栈，栈深度与嵌套层数无关
+     */
+    private void run() {
+        flushPending();
+        while (!workStatements.isEmpty()) {
+            ProgressManager.checkCanceled();
+            analyzeStatement(workStatements.pop(), workParents.pop());
+            flushPending();
+        }
+    }
+
+    private void flushPending() {
+        for (int i = pendingStatements.size() - 1; i >= 0; i--) {
+            workStatements.push(pendingStatements.get(i));
+            workParents.push(pendingParents.get(i));
+        }
+        pendingStatements.clear();
+        pendingParents.clear();
+    }
+
+    private void schedule(@Nullable LighterASTNode statement, IFTreeNode parentNode) {
+        if (statement != null) {
+            pendingStatements.add(statement);
+            pendingParents.add(parentNode);
+        }
+    }
+
+    private void analyzeCodeBlock(@Nullable LighterASTNode codeBlock, IFTreeNode parentNode) {
+        if (codeBlock == null) {
+            return;
+        }
+        for (LighterASTNode statement : statements(codeBlock)) {
+            schedule(statement, parentNode);
+        }
+    }
+
+    private void analyzeStatement(LighterASTNode statement, IFTreeNode parentNode) {
+        IElementType type = statement.getTokenType();
+        if (type == JavaElementType.IF_STATEMENT) {
+            analyzeIfStatement(statement, parentNode);
+        } else if (type == JavaElementType.WHILE_STATEMENT) {
+            IFTreeNode whileNode = rangeNode(IFTreeNode.NodeType.WHILE, JavaLightTreeUtil.findExpressionChild(tree, statement),
+                    "while (no condition)");
+            parentNode.addChild(whileNode);
+            schedule(firstStatement(statement), whileNode);
+        } else if (type == JavaElementType.DO_WHILE_STATEMENT) {
+            IFTreeNode doWhileNode = rangeNode(IFTreeNode.NodeType.DO_WHILE,
+                    JavaLightTreeUtil.findExpressionChild(tree, statement), "do-while (no condition)");
+            parentNode.addChild(doWhileNode);
+            schedule(firstStatement(statement), doWhileNode);
+        } else if (type == JavaElementType.FOR_STATEMENT || type == JavaElementType.FOREACH_STATEMENT) {
+            analyzeForStatement(statement, type == JavaElementType.FOR_STATEMENT ? "for (;;)" : "for ( : )", parentNode);
+        } else if (type == JavaElementType.SWITCH_STATEMENT) {
+            analyzeSwitchStatement(statement, parentNode);
+        } else if (type == JavaElementType.TRY_STATEMENT) {
+            analyzeTryStatement(statement, parentNode);
+        } else if (type == JavaElementType.BLOCK_STATEMENT || type == JavaElementType.SYNCHRONIZED_STATEMENT) {
+            // 同步块和普通代码块一样，内部的控制流直接挂在当前父节点下
+            analyzeCodeBlock(LightTreeUtil.firstChildOfType(tree, statement, JavaElementType.CODE_BLOCK), parentNode);
+        } else if (type == JavaElementType.LABELED_STATEMENT) {
+            schedule(firstStatement(statement), parentNode);
+        }
+    }
+
+    private void analyzeIfStatement(LighterASTNode ifStatement, IFTreeNode parentNode) {
+        IFTreeNode ifNode = rangeNode(IFTreeNode.NodeType.IF, JavaLightTreeUtil.findExpressionChild(tree, ifStatement),
+                "if (no condition)");
+        parentNode.addChild(ifNode);
+        LighterASTNode[] branches = ifBranches(ifStatement);
+        schedule(branches[0], ifNode);
+
+        // else-if链在同一个循环里平铺为同级节点
+        LighterASTNode elseBranch = branches[1];
+        while (elseBranch != null && elseBranch.getTokenType() == JavaElementType.IF_STATEMENT) {
+            IFTreeNode elseIfNode = rangeNode(IFTreeNode.NodeType.ELSE_IF,
+                    JavaLightTreeUtil.findExpressionChild(tree, elseBranch), "else if (no condition)");
+            parentNode.addChild(elseIfNode);
+            branches = ifBranches(elseBranch);
+            schedule(branches[0], elseIfNode);
+            elseBranch = branches[1];
+        }
+
+        if (elseBranch != null) {
+            IFTreeNode elseNode = new IFTreeNode(IFTreeNode.NodeType.ELSE, "else");
+            parentNode.addChild(elseNode);
+            schedule(elseBranch, elseNode);
+        }
+    }
+
+    private void analyzeForStatement(LighterASTNode forStatement, String fallback, IFTreeNode parentNode) {
+        // 循环头是两个括号之间的内容，循环体是右括号之后的语句
+        LighterASTNode lParenth = null;
+        LighterASTNode rParenth = null;
+        LighterASTNode body = null;
+        for (LighterASTNode child : tree.getChildren(forStatement)) {
+            IElementType type = child.getTokenType();
+            if (type == JavaTokenType.LPARENTH && lParenth == null) {
+                lParenth = child;
+            } else if (type == JavaTokenType.RPARENTH && rParenth == null) {
+                rParenth = child;
+            } else if (rParenth != null && body == null && ElementType.JAVA_STATEMENT_BIT_SET.contains(type)) {
+                body = child;
+            }
+        }
+
+        IFTreeNode forNode = lParenth != null && rParenth != null
+                ? new IFTreeNode(IFTreeNode.NodeType.FOR, source, lParenth.getEndOffset(),
+                rParenth.getStartOffset() - lParenth.getEndOffset())
+                : new IFTreeNode(IFTreeNode.NodeType.FOR, fallback);
+        parentNode.addChild(forNode);
+        schedule(body, forNode);
+    }
+
+    private void analyzeSwitchStatement(LighterASTNode switchStatement, IFTreeNode parentNode) {
+        IFTreeNode switchNode = rangeNode(IFTreeNode.NodeType.SWITCH,
+                JavaLightTreeUtil.findExpressionChild(tree, switchStatement), "switch (no expression)");
+        parentNode.addChild(switchNode);
+
+        LighterASTNode body = LightTreeUtil.firstChildOfType(tree, switchStatement, JavaElementType.CODE_BLOCK);
+        if (body == null) {
+            return;
+        }
+
+        IFTreeNode caseNode = null;
+        for (LighterASTNode child : statements(body)) {
+            IElementType type = child.getTokenType();
+            if (type == JavaElementType.SWITCH_LABELED_RULE) {
+                LighterASTNode labelList = LightTreeUtil.firstChildOfType(tree, child, JavaElementType.CASE_LABEL_ELEMENT_LIST);
+                IFTreeNode ruleNode;
+                if (isDefaultCase(child, labelList)) {
+                    ruleNode = new IFTreeNode(IFTreeNode.NodeType.DEFAULT, "default");
+                } else if (labelList != null) {
+                    // 从case关键字到最后一个标签，即"case A, B"
+                    ruleNode = new IFTreeNode(IFTreeNode.NodeType.CASE, source, child.getStartOffset(),
+                            labelList.getEndOffset() - child.getStartOffset());
+                } else {
+                    ruleNode = rangeNode(IFTreeNode.NodeType.CASE, child, "case");
+                }
+                switchNode.addChild(ruleNode);
+                schedule(firstStatement(child), ruleNode);
+                caseNode = null;
+            } else if (type == JavaElementType.SWITCH_LABEL_STATEMENT) {
+                caseNode = isDefaultCase(child,
+                        LightTreeUtil.firstChildOfType(tree, child, JavaElementType.CASE_LABEL_ELEMENT_LIST))
+                        ? new IFTreeNode(IFTreeNode.NodeType.DEFAULT, "default:")
+                        : rangeNode(IFTreeNode.NodeType.CASE, child, "case:");
+                switchNode.addChild(caseNode);
+            } else if (caseNode != null) {
+                // 后续语句归属到这个case，直到遇到下一个标签
+                schedule(child, caseNode);
+            }
+        }
+    }
+
+    /**
+     * 与PSI的isDefaultCase()一致：default标签，或标签列表中含有default，如case null, default
+     */
+    private boolean isDefaultCase(LighterASTNode label, @Nullable LighterASTNode labelList) {
+        return LightTreeUtil.firstChildOfType(tree, label, JavaTokenType.DEFAULT_KEYWORD) != null
+                || labelList != null
+                && LightTreeUtil.firstChildOfType(tree, labelList, JavaElementType.DEFAULT_CASE_LABEL_ELEMENT) != null;
+    }
+
+    private void analyzeTryStatement(LighterASTNode tryStatement, IFTreeNode parentNode) {
+        IFTreeNode tryNode = rangeNode(IFTreeNode.NodeType.TRY,
+                LightTreeUtil.firstChildOfType(tree, tryStatement, JavaElementType.RESOURCE_LIST), "try");
+        parentNode.addChild(tryNode);
+
+        boolean afterFinally = false;
+        boolean tryBlockSeen = false;
+        for (LighterASTNode child : tree.getChildren(tryStatement)) {
+            IElementType type = child.getTokenType();
+            if (type == JavaElementType.CODE_BLOCK && !tryBlockSeen) {
+                tryBlockSeen = true;
+                analyzeCodeBlock(child, tryNode);
+            } else if (type == JavaElementType.CATCH_SECTION) {
+                LighterASTNode parameter = LightTreeUtil.firstChildOfType(tree, child, JavaElementType.PARAMETER);
+                if (parameter == null) {
+                    continue;
+                }
+                IFTreeNode catchNode = rangeNode(IFTreeNode.NodeType.CATCH, parameter, "catch ()");
+                parentNode.addChild(catchNode);
+                analyzeCodeBlock(LightTreeUtil.firstChildOfType(tree, child, JavaElementType.CODE_BLOCK), catchNode);
+            } else if (type == JavaTokenType.FINALLY_KEYWORD) {
+                afterFinally = true;
+            } else if (type == JavaElementType.CODE_BLOCK && afterFinally) {
+                IFTreeNode finallyNode = new IFTreeNode(IFTreeNode.NodeType.FINALLY, "finally");
+                parentNode.addChild(finallyNode);  // Add to parent, not tryNode
+                analyzeCodeBlock(child, finallyNode);
+            }
+        }
+    }
+
+    /**
+     * 返回if语句的then分支和else分支，不存在时为null
+     */
+    private LighterASTNode[] ifBranches(LighterASTNode ifStatement) {
+        LighterASTNode[] branches = new LighterASTNode[2];
+        boolean afterElse = false;
+        for (LighterASTNode child : tree.getChildren(ifStatement)) {
+            IElementType type = child.getTokenType();
+            if (type == JavaTokenType.ELSE_KEYWORD) {
+                afterElse = true;
+            } else if (ElementType.JAVA_STATEMENT_BIT_SET.contains(type)) {
+                branches[afterElse ? 1 : 0] = child;
+            }
+        }
+        return branches;
+    }
+
+    private List<LighterASTNode> statements(LighterASTNode codeBlock) {
+        List<LighterASTNode> result = new ArrayList<>();
+        for (LighterASTNode child : tree.getChildren(codeBlock)) {
+            if (ElementType.JAVA_STATEMENT_BIT_SET.contains(child.getTokenType())) {
+                result.add(child);
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    private LighterASTNode firstStatement(LighterASTNode node) {
+        for (LighterASTNode child : tree.getChildren(node)) {
+            if (ElementType.JAVA_STATEMENT_BIT_SET.contains(child.getTokenType())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private IFTreeNode rangeNode(IFTreeNode.NodeType type, @Nullable LighterASTNode node, String fallback) {
+        if (node == null) {
+            return new IFTreeNode(type, fallback);
+        }
+        return new IFTreeNode(type, source, node.getStartOffset(), node.getEndOffset() - node.getStartOffset());
+    }
+
+    /**
+     * 与PSI版本一致的方法标签：方法名(类型 参数名, ...)
+     */
+    private String methodLabel(LighterASTNode method) {
+        StringBuilder label = new StringBuilder(nameOf(method)).append('(');
+        List<LighterASTNode> parameters = parameters(method);
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                label.append(", ");
+            }
+            LighterASTNode typeNode = LightTreeUtil.firstChildOfType(tree, parameters.get(i), JavaElementType.TYPE);
+            label.append(typeNode == null ? "" : LightTreeUtil.toFilteredString(tree, typeNode, null))
+                    .append(' ')
+                    .append(nameOf(parameters.get(i)));
+        }
+        return label.append(')').toString();
+    }
+
+    private String signature(LighterASTNode method) {
+        StringBuilder signature = new StringBuilder(nameOf(method)).append('(');
+        List<LighterASTNode> parameters = parameters(method);
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            LighterASTNode typeNode = LightTreeUtil.firstChildOfType(tree, parameters.get(i), JavaElementType.TYPE);
+            signature.append(typeNode == null ? "" : ControlFlowSummaryIndex.withoutWhitespace(
+                    LightTreeUtil.toFilteredString(tree, typeNode, null)));
+        }
+        return signature.append(')').toString();
+    }
+
+    private List<LighterASTNode> parameters(LighterASTNode method) {
+        LighterASTNode parameterList = LightTreeUtil.firstChildOfType(tree, method, JavaElementType.PARAMETER_LIST);
+        if (parameterList == null) {
+            return new ArrayList<>();
+        }
+        return LightTreeUtil.getChildrenOfType(tree, parameterList, JavaElementType.PARAMETER);
+    }
+
+    private String nameOf(LighterASTNode node) {
+        LighterASTNode identifier = LightTreeUtil.firstChildOfType(tree, node, JavaTokenType.IDENTIFIER);
+        return identifier == null ? "" : source.subSequence(identifier.getStartOffset(), identifier.getEndOffset()).toString();
+    }
+
+    private int nameOffset(LighterASTNode node) {
+        LighterASTNode identifier = LightTreeUtil.firstChildOfType(tree, node, JavaTokenType.IDENTIFIER);
+        return identifier == null ? node.getStartOffset() : identifier.getStartOffset();
+    }
+
+    private String packageName(LighterASTNode file) {
+        LighterASTNode packageStatement = LightTreeUtil.firstChildOfType(tree, file, JavaElementType.PACKAGE_STATEMENT);
+        if (packageStatement == null) {
+            return "";
+        }
+        LighterASTNode reference = LightTreeUtil.firstChildOfType(tree, packageStatement, JavaElementType.JAVA_CODE_REFERENCE);
+        return reference == null ? "" : LightTreeUtil.toFilteredString(tree, reference, null);
+    }
+
+    private static String qualify(String owner, String name) {
+        return owner.isEmpty() ? name : owner + "." + name;
+    }
+}
@@ -0,0 +1,111 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiMethod;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 批量分析中单个方法的结果。只保存指标和位置，不持有PSI和树，结果多时也不会占用大量内存
+ */
+public final class MethodReport {
+    // 结果来自索引，本次报告没有实际分析，也就没有耗时
+    static final long NOT_MEASURED = -1;
+
+    private final String methodName;
+    private final String className;
+    private final VirtualFile file;
+    private final int offset;
+    private final IfTreeMetrics metrics;
+    private final long analysisNanos;
+
+    MethodReport(String methodName, String className, VirtualFile file, int offset, IfTreeMetrics metrics,
+                 long analysisNanos) {
+        this.methodName = methodName;
+        this.className = className;
+        this.file = file;
+        this.offset = offset;
+        this.metrics = metrics;
+        this.analysisNanos = analysisNanos;
+    }
+
+    /**
+     * 需要在读操作中调用
+     */
+    static MethodReport of(@NotNull PsiMethod method, @NotNull VirtualFile file, @NotNull IFTreeNode tree,
+                           long analysisNanos) {
+        PsiClass containingClass = method.getContainingClass();
+        String className = containingClass == null ? "" :
+                containingClass.getQualifiedName() != null ? containingClass.getQualifiedName() : String.valueOf(containingClass.getName());
+        return new MethodReport(tree.getText(), className, file, method.getTextOffset(), tree.getMetrics(),
+                analysisNanos);
+    }
+
+    /**
+     * 由LighterAST分析结果生成，类名取自方法签名中'#'之前的部分
+     */
+    static MethodReport of(@NotNull LighterAstAnalyzeIf.MethodTree method, @NotNull VirtualFile file) {
+        String signature = method.getSignature();
+        int hash = signature.indexOf('#');
+        String className = hash < 0 ? "" : signature.substring(0, hash);
+        return new MethodReport(method.getTree().getText(), className, file, method.getOffset(),
+                method.getTree().getMetrics(), method.getAnalysisNanos());
+    }
+
+    /**
+     * 由索引中的摘要生成。signature形如 pkg.Outer#name(Type1,Type2)，重复的签名后面带有#序号
+     */
+    static MethodReport of(@NotNull String signature, @NotNull IndexedMethodSummary summary, @NotNull VirtualFile file) {
+        int hash = signature.indexOf('#');
+        int end = signature.indexOf(')', hash);
+        String methodName = signature.substring(hash + 1, end < 0 ? signature.length() : end + 1);
+        return new MethodReport(methodName, hash < 0 ? "" : signature.substring(0, hash), file, summary.getOffset(),
+                summary.toMetrics(), NOT_MEASURED);
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public VirtualFile getFile() {
+        return file;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public IfTreeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 本次报告中分析这个方法的耗时，结果来自索引时为 {@link #NOT_MEASURED}
+     */
+    public long getAnalysisNanos() {
+        return analysisNanos;
+    }
+
+    public boolean isMeasured() {
+        return analysisNanos != NOT_MEASURED;
+    }
+
+    /**
+     * 分析因节点数、深度或时间限制被截断，指标只是下限
+     */
+    public boolean isTruncated() {
+        return metrics.getCount(IFTreeNode.NodeType.TRUNCATED) > 0;
+    }
+
+    public void navigate(@NotNull Project project) {
+        if (file.isValid()) {
+            new OpenFileDescriptor(project, file, offset).navigate(true);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package site.hnfy258.plugindemo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 把控制流树转换为PlantUML活动图源码。
+ * if/else-if/else和try/catch/finally在树中是平铺的同级节点，这里按顺序把它们合并成一个分支结构
+ */
+final class PlantUmlActivityWriter {
+    // 图中单个标签的最大长度
+    private static final int MAX_LABEL_LENGTH = 80;
+
+    private PlantUmlActivityWriter() {
+    }
+
+    @NotNull
+    static String write(@NotNull IFTreeNode root) {
+        StringBuilder out = new StringBuilder(256);
+        out.append("@startuml\n");
+        out.append("title ").append(plain(root, root.getText(MAX_LABEL_LENGTH))).append('\n');
+        out.append("start\n");
+
+        // 显式工作栈，深层嵌套的树不会栈溢出；条目是待输出的一行或待处理的一组同级节点
+        Deque<Step> work = new ArrayDeque<>();
+        work.push(Step.nodes(root.getChildren(), 0, 0));
+        while (!work.isEmpty()) {
+            Step step = work.pop();
+            if (step.line != null) {
+                indent(out, step.depth).append(step.line).append('\n');
+            } else if (step.index < step.nodes.size()) {
+                List<Step> steps = new ArrayList<>();
+                int next = expand(step.nodes, step.index, step.depth, steps);
+                work.push(Step.nodes(step.nodes, next, step.depth));
+                for (int i = steps.size() - 1; i >= 0; i--) {
+                    work.push(steps.get(i));
+                }
+            }
+        }
+
+        out.append("stop\n");
+        out.append("@enduml\n");
+        return out.toString();
+    }
+
+    /**
+     * 把从index开始的一个结构展开为按顺序输出的步骤，返回下一个未处理的同级节点位置
+     */
+    private static int expand(List<IFTreeNode> nodes, int index, int depth, List<Step> steps) {
+        IFTreeNode node = nodes.get(index);
+        int inner = depth + 1;
+        switch (node.getType()) {
+            case IF: {
+                steps.add(Step.line("if (" + condition(node) + ") then", depth));
+                steps.add(Step.nodes(node.getChildren(), 0, inner));
+                int next = index + 1;
+                for (; next < nodes.size(); next++) {
+                    IFTreeNode branch = nodes.get(next);
+                    if (branch.getType() == IFTreeNode.NodeType.ELSE_IF) {
+                        steps.add(Step.line("elseif (" + condition(branch) + ") then", depth));
+                    } else if (branch.getType() == IFTreeNode.NodeType.ELSE) {
+                        steps.add(Step.line("else", depth));
+                    } else {
+                        break;
+                    }
+                    steps.add(Step.nodes(branch.getChildren(), 0, inner));
+                    if (branch.getType() == IFTreeNode.NodeType.ELSE) {
+                        next++;
+                        break;
+                    }
+                }
+                steps.add(Step.line("endif", depth));
+                return next;
+            }
+            case WHILE:
+            case FOR:
+                steps.add(Step.line("while (" + condition(node) + ")", depth));
+                steps.add(Step.nodes(node.getChildren(), 0, inner));
+                steps.add(Step.line("endwhile", depth));
+                return index + 1;
+            case DO_WHILE:
+                steps.add(Step.line("repeat", depth));
+                steps.add(Step.nodes(node.getChildren(), 0, inner));
+                steps.add(Step.line("repeat while (" + condition(node) + ")", depth));
+                return index + 1;
+            case SWITCH:
+                if (node.getChildren().isEmpty()) {
+                    steps.add(Step.line(activity(node), depth));
+                    return index + 1;
+                }
+                steps.add(Step.line("switch (" + condition(node) + ")", depth));
+                for (IFTreeNode caseNode : node.getChildren()) {
+                    steps.add(Step.line("case (" + caseLabel(caseNode) + ")", depth));
+                    steps.add(Step.nodes(caseNode.getChildren(), 0, inner));
+                }
+                steps.add(Step.line("endswitch", depth));
+                return index + 1;
+            case TRY: {
+                int next = index + 1;
+                while (next < nodes.size() && nodes.get(next).getType() == IFTreeNode.NodeType.CATCH) {
+                    next++;
+                }
+                if (next == index + 1) {
+                    steps.add(Step.line("group " + plain(node, node.getText(MAX_LABEL_LENGTH)), depth));
+                    steps.add(Step.nodes(node.getChildren(), 0, inner));
+                    steps.add(Step.line("end group", depth));
+                } else {
+                    // try块和各个catch是互斥的执行路径，用split并列
+                    steps.add(Step.line("split", depth));
+                    steps.add(Step.line(activity(node), inner));
+                    steps.add(Step.nodes(node.getChildren(), 0, inner));
+                    for (int i = index + 1; i < next; i++) {
+                        steps.add(Step.line("split again", depth));
+                        steps.add(Step.line(activity(nodes.get(i)), inner));
+                        steps.add(Step.nodes(nodes.get(i).getChildren(), 0, inner));
+                    }
+                    steps.add(Step.line("end split", depth));
+                }
+                if (next < nodes.size() && nodes.get(next).getType() == IFTreeNode.NodeType.FINALLY) {
+                    steps.add(Step.line("group finally", depth));
+                    steps.add(Step.nodes(nodes.get(next).getChildren(), 0, inner));
+                    steps.add(Step.line("end group", depth));
+                    next++;
+                }
+                return next;
+            }
+            case TRUNCATED:
+                steps.add(Step.line("#lightgray" + activity(node), depth));
+                return index + 1;
+            default:
+                // 孤立的else、catch等以及其他节点按普通活动输出，子节点接在后面
+                steps.add(Step.line(activity(node), depth));
+                steps.add(Step.nodes(node.getChildren(), 0, depth));
+                return index + 1;
+        }
+    }
+
+    /**
+     * 条件部分的文本，不带节点类型的前后缀
+     */
+    private static String condition(IFTreeNode node) {
+        IFTreeNode.NodeType type = node.getType();
+        if (type == IFTreeNode.NodeType.FOR) {
+            // for的括号里是初始化、条件和更新三部分，保留关键字更容易辨认
+            return plain(node, node.getText(MAX_LABEL_LENGTH));
+        }
+        String text;
+        if (node.getLabelStart() >= 0) {
+            CharSequence source = node.getLabelSource();
+            int start = node.getLabelStart();
+            text = source.subSequence(start, start + Math.min(node.getLabelLength(), MAX_LABEL_LENGTH)).toString();
+        } else {
+            text = node.getText(MAX_LABEL_LENGTH);
+            // 没有条件的固定文本如"if (no condition)"，去掉重复的关键字
+            if (text.startsWith(type.prefix) && text.endsWith(type.suffix)
+                    && text.length() >= type.prefix.length() + type.suffix.length()) {
+                text = text.substring(type.prefix.length(), text.length() - type.suffix.length());
+            }
+        }
+        return plain(node, text);
+    }
+
+    private static String caseLabel(IFTreeNode node) {
+        String text = node.getText(MAX_LABEL_LENGTH).trim();
+        if (text.startsWith("case")) {
+            text = text.substring(4).trim();
+        }
+        if (text.endsWith(":")) {
+            text = text.substring(0, text.length() - 1).trim();
+        }
+        return plain(node, text.isEmpty() ? "default" : text);
+    }
+
+    private static String activity(IFTreeNode node) {
+        return ":" + plain(node, node.getText(MAX_LABEL_LENGTH)) + ";";
+    }
+
+    /**
+     * 把标签压成一行；PlantUML中行尾的分号会结束活动，替换成全角分号
+     */
+    private static String plain(IFTreeNode node, String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = builder.length() > 0;
+                continue;
+            }
+            if (space) {
+                builder.append(' ');
+                space = false;
+            }
+            builder.append(c == ';' ? '；' : c);
+        }
+        if (builder.length() == 0) {
+            builder.append(node.getType().name().toLowerCase());
+        }
+        return builder.toString();
+    }
+
+    private static StringBuilder indent(StringBuilder out, int depth) {
+        for (int i = 0; i < depth; i++) {
+            out.append("  ");
+        }
+        return out;
+    }
+
+    private static final class Step {
+        final String line;
+        final List<IFTreeNode> nodes;
+        final int index;
+        final int depth;
+
+        private Step(String line, List<IFTreeNode> nodes, int index, int depth) {
+            this.line = line;
+            this.nodes = nodes;
+            this.index = index;
+            this.depth = depth;
+        }
+
+        static Step line(String line, int depth) {
+            return new Step(line, null, 0, depth);
+        }
+
+        static Step nodes(List<IFTreeNode> nodes, int index, int depth) {
+            return new Step(null, nodes, index, depth);
+        }
+    }
+}
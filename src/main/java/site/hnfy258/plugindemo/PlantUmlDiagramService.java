@@ -0,0 +1,140 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import net.sourceforge.plantuml.FileFormat;
+import net.sourceforge.plantuml.FileFormatOption;
+import net.sourceforge.plantuml.SourceStringReader;
+import net.sourceforge.plantuml.core.DiagramDescription;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 把控制流树渲染为PlantUML活动图。
+ * 布局在专用的有界线程池中进行，不会占用EDT；渲染结果按树的结构哈希和格式缓存，
+ * 按字节数计重，总大小超过预算（visualizeif.plantuml.cacheMaxKb）时按LRU淘汰。
+ * 同一张图同时被请求多次时只渲染一次
+ */
+public final class PlantUmlDiagramService {
+    private static final String CACHE_MAX_KB_KEY = "visualizeif.plantuml.cacheMaxKb";
+    private static final int DEFAULT_CACHE_MAX_KB = 32 * 1024;
+    private static final ExecutorService EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("VisualizeIF PlantUML", 2);
+
+    public enum Format {
+        SVG("svg", FileFormat.SVG), PNG("png", FileFormat.PNG);
+
+        private final String extension;
+        private final FileFormat fileFormat;
+
+        Format(String extension, FileFormat fileFormat) {
+            this.extension = extension;
+            this.fileFormat = fileFormat;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final WeightedLruCache<ImageKey, byte[]> images = new WeightedLruCache<>(
+            4, () -> Registry.intValue(CACHE_MAX_KB_KEY, DEFAULT_CACHE_MAX_KB) * 1024L, image -> image.length);
+    private final ConcurrentMap<ImageKey, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+
+    public static PlantUmlDiagramService getInstance() {
+        return ApplicationManager.getApplication().getService(PlantUmlDiagramService.class);
+    }
+
+    /**
+     * 生成活动图的PlantUML源码
+     */
+    @NotNull
+    public String toPlantUml(@NotNull IFTreeNode tree) {
+        return PlantUmlActivityWriter.write(tree);
+    }
+
+    /**
+     * 异步渲染活动图。缓存命中时直接返回已完成的结果，否则在后台线程中渲染；
+     * 返回的数组与缓存共享，调用方不能修改
+     */
+    @NotNull
+    public CompletableFuture<byte[]> render(@NotNull IFTreeNode tree, @NotNull Format format) {
+        ImageKey key = new ImageKey(tree.getStructuralHash(), format);
+        byte[] cached = images.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = pending.putIfAbsent(key, future);
+        if (running != null) {
+            return running;
+        }
+        EXECUTOR.execute(() -> {
+            try {
+                // 先放入缓存再移出等待表，之后的请求总能在其中一处找到结果
+                byte[] image = images.peek(key);
+                if (image == null) {
+                    long start = System.nanoTime();
+                    image = renderNow(PlantUmlActivityWriter.write(tree), format);
+                    images.recordLoad(System.nanoTime() - start);
+                    images.put(key, image);
+                }
+                future.complete(image);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                pending.remove(key, future);
+            }
+        });
+        return future;
+    }
+
+    public WeightedLruCache.CacheStats getStats() {
+        return images.getStats();
+    }
+
+    private static byte[] renderNow(String source, Format format) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        try {
+            DiagramDescription description = new SourceStringReader(source)
+                    .outputImage(out, new FileFormatOption(format.fileFormat));
+            if (description == null) {
+                throw new IOException("PlantUML did not produce a diagram");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class ImageKey {
+        private final long structuralHash;
+        private final Format format;
+
+        ImageKey(long structuralHash, Format format) {
+            this.structuralHash = structuralHash;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ImageKey)) return false;
+            ImageKey other = (ImageKey) o;
+            return structuralHash == other.structuralHash && format == other.format;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(structuralHash) + format.hashCode();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.ui.SimpleListCellRenderer;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在整个项目中搜索条件、switch选择表达式、case标签和catch类型，结果可直接跳转到源码。
+ * 查询只读取 {@link ControlFlowConditionIndex} 和命中文件的文本，不解析也不分析任何文件
+ */
+public class SearchControlFlowConditionsAction extends AnAction {
+    private static final int MAX_RESULTS = 500;
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+        String query = Messages.showInputDialog(project,
+                "搜索条件、switch选择表达式、case标签和catch类型，例如 featureFlags.isEnabled 或 OrderState",
+                "搜索控制流条件", null);
+        if (query == null || query.isBlank()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        // 索引建好之前查询会等待smart模式，期间可以继续编辑
+        ReadAction.nonBlocking(() -> ControlFlowConditionIndex.search(project, query.trim(),
+                        GlobalSearchScope.projectScope(project), MAX_RESULTS))
+                .inSmartMode(project)
+                .expireWith(project)
+                .finishOnUiThread(ModalityState.defaultModalityState(),
+                        hits -> showResults(project, query.trim(), hits, System.nanoTime() - start))
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    private static void showResults(Project project, String query, List<ControlFlowConditionIndex.Hit> hits,
+                                    long nanos) {
+        if (hits.isEmpty()) {
+            Messages.showInfoMessage(project, "没有找到包含 \"" + query + "\" 的分支", "搜索控制流条件");
+            return;
+        }
+        String title = hits.size() + (hits.size() >= MAX_RESULTS ? "+" : "") + " 个分支包含 \"" + query + "\"（"
+                + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms）";
+        JBPopupFactory.getInstance()
+                .createPopupChooserBuilder(hits)
+                .setTitle(title)
+                .setRenderer(SimpleListCellRenderer.<ControlFlowConditionIndex.Hit>create("", hit ->
+                        StringUtil.shortenTextWithEllipsis(hit.getText(), 100, 0)
+                                + "    " + shortMethod(hit.getMethod())
+                                + " (" + hit.getFile().getName() + ")"))
+                .setNamerForFiltering(hit -> hit.getText())
+                .setItemChosenCallback(hit -> new OpenFileDescriptor(project, hit.getFile(),
+                        hit.getCondition().getOffset()).navigate(true))
+                .createPopup()
+                .showCenteredInCurrentWindow(project);
+    }
+
+    /**
+     * pkg.Outer#name(Type) 只保留类的简单名和方法名
+     */
+    private static String shortMethod(String signature) {
+        int hash = signature.indexOf('#');
+        int paren = signature.indexOf('(', Math.max(hash, 0));
+        String owner = hash < 0 ? "" : StringUtil.getShortName(signature.substring(0, hash));
+        String name = hash < 0 ? signature : signature.substring(hash + 1, paren < 0 ? signature.length() : paren);
+        return owner.isEmpty() ? name : owner + "." + name;
+    }
+}
@@ -0,0 +1,13 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.DumbAware;
+import org.jetbrains.annotations.NotNull;
+
+public class ShowControlFlowDiagnosticsAction extends AnAction implements DumbAware {
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        new ControlFlowDiagnosticsDialog(e.getProject()).show();
+    }
+}
@@ -0,0 +1,243 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.history.LocalHistory;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vcs.history.VcsFileRevision;
+import com.intellij.openapi.vcs.history.VcsHistoryProvider;
+import com.intellij.openapi.vcs.history.VcsHistorySession;
+import com.intellij.openapi.vcs.history.VcsHistoryUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.pom.java.LanguageLevel;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
+import com.intellij.ui.SimpleListCellRenderer;
+import com.intellij.vcsUtil.VcsUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比光标所在方法与所选历史版本的控制流结构，可选基准版本、本地历史或版本控制中的最近提交。
+ * 两个版本都用LighterAST分析，保证标签和签名的生成方式一致
+ */
+public class ShowControlFlowDiffAction extends AnAction {
+    private static final Logger LOG = Logger.getInstance(ShowControlFlowDiffAction.class);
+    private static final int[] LOCAL_HISTORY_MINUTES = {10, 60, 8 * 60};
+    private static final int MAX_VCS_REVISIONS = 20;
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        PsiFile file = e.getData(CommonDataKeys.PSI_FILE);
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null && e.getData(CommonDataKeys.EDITOR) != null
+                && file instanceof PsiJavaFile);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        Editor editor = e.getData(CommonDataKeys.EDITOR);
+        PsiFile file = e.getData(CommonDataKeys.PSI_FILE);
+        if (project == null || editor == null || file == null || file.getVirtualFile() == null) {
+            return;
+        }
+
+        // 先提交文档，保证文本和PSI中的偏移量一致
+        PsiDocumentManager.getInstance(project).commitDocument(editor.getDocument());
+        PsiMethod method = PsiTreeUtil.getParentOfType(file.findElementAt(editor.getCaretModel().getOffset()), PsiMethod.class);
+        if (method == null || method.getBody() == null) {
+            Messages.showInfoMessage(project, "请将光标放在一个带方法体的方法中", "控制流对比");
+            return;
+        }
+
+        VirtualFile virtualFile = file.getVirtualFile();
+        CharSequence currentText = editor.getDocument().getImmutableCharSequence();
+        int methodOffset = method.getTextOffset();
+        String methodName = method.getName();
+        LanguageLevel languageLevel = PsiUtil.getLanguageLevel(file);
+
+        // 读取版本历史可能访问版本控制，在后台收集可选版本，再让用户选择对比哪一个
+        new Task.Backgroundable(project, "读取历史版本", true) {
+            private List<Revision> revisions = Collections.emptyList();
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                revisions = collectRevisions(project, virtualFile);
+            }
+
+            @Override
+            public void onSuccess() {
+                JBPopupFactory.getInstance()
+                        .createPopupChooserBuilder(revisions)
+                        .setTitle("选择要对比的版本 - " + methodName)
+                        .setRenderer(SimpleListCellRenderer.<Revision>create("", revision -> revision.name))
+                        .setNamerForFiltering(revision -> revision.name)
+                        .setItemChosenCallback(revision -> compare(project, revision, currentText, methodOffset,
+                                methodName, languageLevel))
+                        .createPopup()
+                        .showInBestPositionFor(editor);
+            }
+        }.queue();
+    }
+
+    private static void compare(Project project, Revision revision, CharSequence currentText, int methodOffset,
+                                String methodName, LanguageLevel languageLevel) {
+        new Task.Backgroundable(project, "对比控制流结构", true) {
+            private IfTreeDiff.Node diff;
+            private String problem;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                String beforeText;
+                try {
+                    beforeText = revision.content.compute();
+                } catch (VcsException | IOException ex) {
+                    problem = "无法读取" + revision.name + ": " + ex.getMessage();
+                    return;
+                }
+                if (beforeText == null) {
+                    problem = "无法读取" + revision.name;
+                    return;
+                }
+
+                LighterAstAnalyzeIf.MethodTree after = ReadAction.compute(() -> findByOffset(
+                        LighterAstAnalyzeIf.parse(project, currentText, languageLevel).analyzeFile(), methodOffset));
+                if (after == null) {
+                    problem = "无法分析当前版本的方法 " + methodName;
+                    return;
+                }
+                indicator.checkCanceled();
+                // 签名不含偏移量，匿名类按出现顺序编号，方法移动位置后仍能匹配
+                LighterAstAnalyzeIf.MethodTree before = ReadAction.compute(() -> findBySignature(
+                        LighterAstAnalyzeIf.parse(project, beforeText, languageLevel).analyzeFile(), after.getSignature()));
+                if (before == null) {
+                    problem = revision.name + "中没有方法 " + after.getSignature();
+                    return;
+                }
+                diff = IfTreeDiff.diff(before.getTree(), after.getTree());
+            }
+
+            @Override
+            public void onSuccess() {
+                if (problem != null) {
+                    Messages.showInfoMessage(project, problem, "控制流对比");
+                } else if (!diff.hasChanges()) {
+                    Messages.showInfoMessage(project, "方法 " + methodName + " 的控制流结构与" + revision.name + "相同",
+                            "控制流对比");
+                } else {
+                    new ControlFlowDiffDialog(project, diff, "控制流对比 - " + methodName + " / " + revision.name).show();
+                }
+            }
+        }.queue();
+    }
+
+    /**
+     * 可选的版本：有未提交修改时的基准版本、几个本地历史时间点，以及版本控制中最近的若干次提交
+     */
+    private static List<Revision> collectRevisions(Project project, VirtualFile file) {
+        List<Revision> revisions = new ArrayList<>();
+        Change change = ChangeListManager.getInstance(project).getChange(file);
+        ContentRevision baseRevision = change == null ? null : change.getBeforeRevision();
+        if (baseRevision != null) {
+            revisions.add(new Revision("基准版本 " + baseRevision.getRevisionNumber().asString(),
+                    baseRevision::getContent));
+        }
+
+        for (int minutes : LOCAL_HISTORY_MINUTES) {
+            long timestamp = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutes);
+            String name = "本地历史 " + (minutes < 60 ? minutes + " 分钟前" : minutes / 60 + " 小时前");
+            revisions.add(new Revision(name, () -> {
+                byte[] bytes = LocalHistory.getInstance().getByteContent(file, revisionTime -> revisionTime <= timestamp);
+                return bytes == null ? null : new String(bytes, file.getCharset());
+            }));
+        }
+
+        AbstractVcs vcs = ProjectLevelVcsManager.getInstance(project).getVcsFor(file);
+        VcsHistoryProvider historyProvider = vcs == null ? null : vcs.getVcsHistoryProvider();
+        if (historyProvider != null) {
+            try {
+                VcsHistorySession session = historyProvider.createSessionFor(VcsUtil.getFilePath(file));
+                List<VcsFileRevision> history = session == null ? Collections.emptyList() : session.getRevisionList();
+                for (VcsFileRevision revision : history.subList(0, Math.min(history.size(), MAX_VCS_REVISIONS))) {
+                    String subject = StringUtil.notNullize(revision.getCommitMessage()).trim().lines().findFirst().orElse("");
+                    String name = revision.getRevisionNumber().asString() + " "
+                            + StringUtil.shortenTextWithEllipsis(subject, 60, 0)
+                            + " (" + StringUtil.notNullize(revision.getAuthor()) + ")";
+                    revisions.add(new Revision(name,
+                            () -> VcsHistoryUtil.loadRevisionContentGuessEncoding(revision, file, project)));
+                }
+            } catch (VcsException e) {
+                // 读取提交历史失败时仍可以选择基准版本和本地历史
+                LOG.info("Cannot load history of " + file.getPath(), e);
+            }
+        }
+        return revisions;
+    }
+
+    @Nullable
+    private static LighterAstAnalyzeIf.MethodTree findByOffset(List<LighterAstAnalyzeIf.MethodTree> methods, int offset) {
+        for (LighterAstAnalyzeIf.MethodTree method : methods) {
+            if (method.getOffset() == offset) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static LighterAstAnalyzeIf.MethodTree findBySignature(List<LighterAstAnalyzeIf.MethodTree> methods,
+                                                                  String signature) {
+        for (LighterAstAnalyzeIf.MethodTree method : methods) {
+            if (method.getSignature().equals(signature)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static final class Revision {
+        final String name;
+        final ContentLoader content;
+
+        Revision(String name, ContentLoader content) {
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    private interface ContentLoader {
+        @Nullable
+        String compute() throws VcsException, IOException;
+    }
+}
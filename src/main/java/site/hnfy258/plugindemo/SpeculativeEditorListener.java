@@ -0,0 +1,62 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.event.CaretEvent;
+import com.intellij.openapi.editor.event.CaretListener;
+import com.intellij.openapi.editor.event.EditorFactoryEvent;
+import com.intellij.openapi.editor.event.EditorFactoryListener;
+import com.intellij.openapi.editor.event.EditorMouseEvent;
+import com.intellij.openapi.editor.event.EditorMouseEventArea;
+import com.intellij.openapi.editor.event.EditorMouseMotionListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 为Java文件的编辑器挂上光标和鼠标监听，把光标停留和行标记悬停交给 {@link IfTreeSpeculativeScheduler}
+ */
+public class SpeculativeEditorListener implements EditorFactoryListener {
+    @Override
+    public void editorCreated(@NotNull EditorFactoryEvent event) {
+        Editor editor = event.getEditor();
+        Project project = editor.getProject();
+        VirtualFile file = FileDocumentManager.getInstance().getFile(editor.getDocument());
+        if (project == null || file == null || file.getFileType() != JavaFileType.INSTANCE) {
+            return;
+        }
+
+        editor.getCaretModel().addCaretListener(new CaretListener() {
+            @Override
+            public void caretPositionChanged(@NotNull CaretEvent e) {
+                if (!project.isDisposed()) {
+                    IfTreeSpeculativeScheduler.getInstance(project).caretMoved(editor, editor.getCaretModel().getOffset());
+                }
+            }
+        });
+
+        editor.addEditorMouseMotionListener(new EditorMouseMotionListener() {
+            private int hoveredLine = -1;
+
+            @Override
+            public void mouseMoved(@NotNull EditorMouseEvent e) {
+                if (project.isDisposed()) {
+                    return;
+                }
+                int line = e.getArea() == EditorMouseEventArea.LINE_MARKERS_AREA ? e.getLogicalPosition().line : -1;
+                if (line == hoveredLine) {
+                    return;
+                }
+                // 离开行标记区域时取消悬停触发的预计算
+                if (hoveredLine >= 0) {
+                    IfTreeSpeculativeScheduler.getInstance(project).cancel();
+                }
+                hoveredLine = line;
+                if (line >= 0) {
+                    IfTreeSpeculativeScheduler.getInstance(project).gutterHovered(editor, line);
+                }
+            }
+        });
+    }
+}
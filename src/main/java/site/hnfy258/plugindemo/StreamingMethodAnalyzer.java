@@ -0,0 +1,227 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.psi.PsiInvalidElementAccessException;
+import com.intellij.psi.PsiMethod;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 异步分析多个方法，每个方法分析完立即通过回调交出结果，调用方不会被阻塞。
+ * 同时运行的分析数不超过maxConcurrency；已提交但回调尚未返回的方法不超过maxInFlight，
+ * 消费者处理得慢时提交也随之放慢，不会在内存中堆积结果。
+ * 每个方法在可被写操作打断的读操作中分析，失败只影响该方法本身。
+ * 调度部分对分析对象是通用的，{@link BatchControlFlowAnalyzer} 以文件为单位使用它
+ */
+public final class StreamingMethodAnalyzer {
+    private static final Logger LOG = Logger.getInstance(StreamingMethodAnalyzer.class);
+
+    /**
+     * 单个分析对象的回调。onResult和onFailure可能被多个工作线程同时调用；
+     * onFinished在所有回调返回后恰好调用一次
+     */
+    interface ItemListener<T, R> {
+        void onResult(@NotNull T item, @NotNull R result);
+
+        default void onFailure(@NotNull T item, @NotNull Throwable error) {
+            LOG.warn("Control flow analysis failed for " + item, error);
+        }
+
+        default void onFinished(boolean cancelled) {
+        }
+    }
+
+    /**
+     * 分析结果的回调。onResult和onFailure可能被多个工作线程同时调用；
+     * onFinished在所有回调返回后恰好调用一次
+     */
+    public interface Listener extends ItemListener<PsiMethod, IFTreeNode> {
+        @Override
+        void onResult(@NotNull PsiMethod method, @NotNull IFTreeNode tree);
+
+        @Override
+        default void onFailure(@NotNull PsiMethod method, @NotNull Throwable error) {
+            LOG.warn("Control flow analysis failed for " + method.getName(), error);
+        }
+    }
+
+    /**
+     * 一次分析的句柄，用于取消和等待结束。
+     * 取消状态单独保存：每个分析对象使用自己的进度指示器，开始运行时会重置指示器的取消标记，不能共用
+     */
+    public static final class Handle {
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final Set<ProgressIndicator> running = ConcurrentHashMap.newKeySet();
+        private final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+        /**
+         * 取消尚未开始的方法并打断正在进行的分析，已交出的结果不受影响
+         */
+        public void cancel() {
+            cancelled.set(true);
+            for (ProgressIndicator indicator : running) {
+                indicator.cancel();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * 所有回调都返回后完成
+         */
+        public CompletableFuture<Void> whenFinished() {
+            return finished;
+        }
+
+        /**
+         * 为一个分析对象创建已开始的指示器，登记后再检查取消状态，与cancel()并发时不会漏掉
+         */
+        private ProgressIndicator start() {
+            ProgressIndicator indicator = new EmptyProgressIndicator();
+            indicator.start();
+            running.add(indicator);
+            if (cancelled.get()) {
+                indicator.cancel();
+            }
+            return indicator;
+        }
+    }
+
+    private final int maxConcurrency;
+    private final int maxInFlight;
+    private final AnalyzeIf analyzer = new AnalyzeIf();
+
+    public StreamingMethodAnalyzer(int maxConcurrency, int maxInFlight) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxInFlight = Math.max(this.maxConcurrency, maxInFlight);
+    }
+
+    /**
+     * 并发数取批量分析的默认并行度，在途上限为并发数的两倍
+     */
+    public StreamingMethodAnalyzer() {
+        this(BatchControlFlowAnalyzer.defaultParallelism(), 2 * BatchControlFlowAnalyzer.defaultParallelism());
+    }
+
+    @NotNull
+    public Handle analyze(@NotNull List<? extends PsiMethod> methods, @NotNull Listener listener) {
+        return analyze(methods, method -> ReadAction.nonBlocking(() -> {
+            if (!method.isValid()) {
+                throw new PsiInvalidElementAccessException(method, "Method was removed before it was analyzed");
+            }
+            return analyzer.analyze(method);
+        }).executeSynchronously(), listener);
+    }
+
+    /**
+     * 以同样的并发和在途限制分析任意对象。analysis在该对象自己的进度指示器下运行，
+     * 需要读操作时应自行使用可被写操作打断的读操作
+     */
+    @NotNull
+    <T, R> Handle analyze(@NotNull List<? extends T> items, @NotNull Function<? super T, ? extends R> analysis,
+                          @NotNull ItemListener<? super T, ? super R> listener) {
+        Handle handle = new Handle();
+        List<T> queue = new ArrayList<>(items);
+        ExecutorService workers =
+                AppExecutorUtil.createBoundedApplicationPoolExecutor("VisualizeIF Streaming Analysis", maxConcurrency);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        // 提交线程自己占一个计数，全部提交完再释放，计数归零时结束
+        AtomicInteger outstanding = new AtomicInteger(1);
+        AtomicBoolean done = new AtomicBoolean();
+        Runnable release = () -> {
+            if (outstanding.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+                finish(handle, listener);
+            }
+        };
+
+        AppExecutorUtil.getAppExecutorService().execute(() -> {
+            try {
+                for (T item : queue) {
+                    if (!acquire(inFlight, handle)) {
+                        break;
+                    }
+                    outstanding.incrementAndGet();
+                    workers.execute(() -> {
+                        try {
+                            analyzeOne(item, analysis, handle, listener);
+                        } finally {
+                            inFlight.release();
+                            release.run();
+                        }
+                    });
+                }
+            } finally {
+                release.run();
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * 等待在途名额，期间响应取消；取消后返回false
+     */
+    private static boolean acquire(Semaphore inFlight, Handle handle) {
+        try {
+            while (!handle.isCancelled()) {
+                if (inFlight.tryAcquire(50, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static <T, R> void analyzeOne(T item, Function<? super T, ? extends R> analysis, Handle handle,
+                                          ItemListener<? super T, ? super R> listener) {
+        if (handle.isCancelled()) {
+            return;
+        }
+        ProgressIndicator indicator = handle.start();
+        R result;
+        try {
+            result = ProgressManager.getInstance().runProcess(() -> analysis.apply(item), indicator);
+        } catch (ProcessCanceledException e) {
+            // 整体被取消时静默结束；否则是分析内部自行取消（如用到的索引或读操作被中断），
+            // 这一项没有结果，按失败报告，调用方不会把它当作已完成。取消异常不能直接记录日志，包装后交出
+            if (!handle.isCancelled()) {
+                listener.onFailure(item, new IllegalStateException("Analysis was canceled before it finished", e));
+            }
+            return;
+        } catch (Throwable e) {
+            listener.onFailure(item, e);
+            return;
+        } finally {
+            handle.running.remove(indicator);
+        }
+        listener.onResult(item, result);
+    }
+
+    private static void finish(Handle handle, ItemListener<?, ?> listener) {
+        try {
+            listener.onFinished(handle.isCancelled());
+        } finally {
+            handle.finished.complete(null);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package site.hnfy258.plugindemo;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * 按权重限制容量的分段LRU缓存。
+ * 键按哈希分到多个段，每段各自加锁并按访问顺序排列；每次访问从全局计数器取一个序号记在条目上，
+ * 总权重超过预算时比较各段最久未访问条目的序号，淘汰整个缓存中最久未访问的那个
+ */
+public class WeightedLruCache<K, V> {
+    private final Segment<K, V>[] segments;
+    private final LongSupplier maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    private final AtomicLong totalWeight = new AtomicLong();
+    // 全局访问序号，越小表示越久未访问
+    private final AtomicLong clock = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public WeightedLruCache(int segmentCount, LongSupplier maxWeight, ToLongFunction<? super V> weigher) {
+        // 段数取2的幂，方便用位运算定位
+        int count = segmentCount <= 1 ? 1 : Integer.highestOneBit(segmentCount - 1) << 1;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>();
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    @Nullable
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            Node<V> node = touch(segment, key);
+            value = node == null ? null : node.value;
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 只有条目存在且满足isValid时才算命中，过期的条目记为未命中并返回null
+     */
+    @Nullable
+    public V get(K key, Predicate<? super V> isValid) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            Node<V> node = touch(segment, key);
+            value = node == null ? null : node.value;
+        }
+        if (value == null || !isValid.test(value)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return value;
+    }
+
+    /**
+     * 与get相同，但不计入命中统计，用于后台预热判断是否需要计算
+     */
+    @Nullable
+    public V peek(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Node<V> node = touch(segment, key);
+            return node == null ? null : node.value;
+        }
+    }
+
+    /**
+     * 取出条目并更新访问序号，需要持有segment的锁。LinkedHashMap.get同时把条目移到段尾，
+     * 段内顺序与序号保持一致
+     */
+    @Nullable
+    private Node<V> touch(Segment<K, V> segment, K key) {
+        Node<V> node = segment.map.get(key);
+        if (node != null) {
+            node.lastAccess = clock.incrementAndGet();
+        }
+        return node;
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        long weight = Math.max(1, weigher.applyAsLong(value));
+        synchronized (segment) {
+            Node<V> node = new Node<>(value, weight);
+            node.lastAccess = clock.incrementAndGet();
+            Node<V> previous = segment.map.put(key, node);
+            long delta = weight - (previous == null ? 0 : previous.weight);
+            segment.weight += delta;
+            totalWeight.addAndGet(delta);
+        }
+
+        // 刚放入的条目至少保留一份
+        long budget = Math.max(1, maxWeight.getAsLong());
+        while (totalWeight.get() > budget) {
+            if (!evictEldest(key)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 淘汰整个缓存中最久未访问的条目，keep除外；没有可淘汰的条目时返回false。
+     * 各段依次加锁读出段首条目的序号，再只锁住选中的段淘汰，同一时刻只持有一个段的锁
+     */
+    private boolean evictEldest(K keep) {
+        while (true) {
+            Segment<K, V> oldest = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (Segment<K, V> segment : segments) {
+                synchronized (segment) {
+                    Map.Entry<K, Node<V>> eldest = segment.eldest(keep);
+                    if (eldest != null && eldest.getValue().lastAccess < oldestAccess) {
+                        oldest = segment;
+                        oldestAccess = eldest.getValue().lastAccess;
+                    }
+                }
+            }
+            if (oldest == null) {
+                return false;
+            }
+            synchronized (oldest) {
+                // 选出后段首条目可能已被访问或移除，这时重新比较
+                Map.Entry<K, Node<V>> eldest = oldest.eldest(keep);
+                if (eldest == null || eldest.getValue().lastAccess != oldestAccess) {
+                    continue;
+                }
+                oldest.map.remove(eldest.getKey());
+                oldest.weight -= eldest.getValue().weight;
+                totalWeight.addAndGet(-eldest.getValue().weight);
+                evictions.increment();
+                return true;
+            }
+        }
+    }
+
+    public void remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Node<V> removed = segment.map.remove(key);
+            if (removed != null) {
+                segment.weight -= removed.weight;
+                totalWeight.addAndGet(-removed.weight);
+            }
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                totalWeight.addAndGet(-segment.weight);
+                segment.map.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * 记录一次加载耗时，由调用方在缓存未命中并重新计算后调用
+     */
+    public void recordLoad(long nanos) {
+        loads.increment();
+        loadNanos.add(nanos);
+    }
+
+    public CacheStats getStats() {
+        long size = 0;
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+                weight += segment.weight;
+            }
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), loads.sum(), loadNanos.sum(),
+                size, weight, maxWeight.getAsLong());
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    private static final class Segment<K, V> {
+        // accessOrder=true，迭代顺序即为从最久未访问到最近访问
+        final LinkedHashMap<K, Node<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+        long weight;
+
+        /**
+         * 段内最久未访问的条目，跳过keep
+         */
+        @Nullable
+        Map.Entry<K, Node<V>> eldest(K keep) {
+            for (Map.Entry<K, Node<V>> entry : map.entrySet()) {
+                if (!entry.getKey().equals(keep)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Node<V> {
+        final V value;
+        final long weight;
+        // 最近一次访问时的全局序号，在所属段的锁内读写
+        long lastAccess;
+
+        Node(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 缓存统计快照
+     */
+    public static final class CacheStats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long loads;
+        public final long totalLoadNanos;
+        public final long size;
+        public final long weight;
+        public final long maxWeight;
+
+        CacheStats(long hits, long misses, long evictions, long loads, long totalLoadNanos,
+                   long size, long weight, long maxWeight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.loads = loads;
+            this.totalLoadNanos = totalLoadNanos;
+            this.size = size;
+            this.weight = weight;
+            this.maxWeight = maxWeight;
+        }
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        public double averageLoadMillis() {
+            return loads == 0 ? 0 : totalLoadNanos / 1_000_000.0 / loads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("entries=%d, weight=%d/%d, hits=%d, misses=%d (hit rate %.1f%%), evictions=%d, loads=%d (avg %.2f ms)",
+                    size, weight, maxWeight, hits, misses, hitRate() * 100, evictions, loads, averageLoadMillis());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 条件索引的搜索：多个词取交集，含标识符以外字符的query还要求忽略空白后整段包含
+ */
+public class ControlFlowConditionIndexTest extends BasePlatformTestCase {
+    private static final String SOURCE = "package demo;\n"
+            + "\n"
+            + "public class Sample {\n"
+            + "    void check(User user, Flags flags) {\n"
+            + "        if (user.isActive() && flags.isEnabled()) {\n"
+            + "            return;\n"
+            + "        }\n"
+            + "        if (flags.isEnabled()) {\n"
+            + "            flags.reset();\n"
+            + "        }\n"
+            + "        while (user != null) {\n"
+            + "            user = user.next();\n"
+            + "        }\n"
+            + "    }\n"
+            + "}\n";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myFixture.configureByText("Sample.java", SOURCE);
+    }
+
+    public void testSingleWord() {
+        assertSameElements(texts(search("flags")),
+                "if (user.isActive() && flags.isEnabled())", "if (flags.isEnabled())");
+    }
+
+    public void testWordsAreIntersected() {
+        List<ControlFlowConditionIndex.Hit> hits = search("user flags");
+        assertEquals(List.of("if (user.isActive() && flags.isEnabled())"), texts(hits));
+        assertEquals(IFTreeNode.NodeType.IF, hits.get(0).getCondition().getType());
+        assertEquals("demo.Sample#check(User,Flags)", hits.get(0).getMethod());
+        // 只有标识符时不要求词的顺序
+        assertEquals(texts(hits), texts(search("FLAGS isActive user")));
+    }
+
+    public void testExactSubstring() {
+        assertSameElements(texts(search("flags.isEnabled(")),
+                "if (user.isActive() && flags.isEnabled())", "if (flags.isEnabled())");
+        // 两个词都在标签里，但不是连续的一段
+        assertEmpty(search("isEnabled(flags"));
+        assertEquals(List.of("while (user != null)"), texts(search("user != null")));
+    }
+
+    public void testExactSubstringIgnoresWhitespaceAndCase() {
+        assertEquals(List.of("if (user.isActive() && flags.isEnabled())"),
+                texts(search("User . isActive ( )&&flags")));
+        assertEquals(List.of("while (user != null)"), texts(search("user!=null")));
+    }
+
+    public void testMissingWord() {
+        assertEmpty(search("user missing"));
+        assertEmpty(search("null"));
+    }
+
+    private List<ControlFlowConditionIndex.Hit> search(String query) {
+        return ControlFlowConditionIndex.search(getProject(), query, GlobalSearchScope.projectScope(getProject()), 100);
+    }
+
+    private static List<String> texts(List<ControlFlowConditionIndex.Hit> hits) {
+        List<String> texts = new ArrayList<>();
+        for (ControlFlowConditionIndex.Hit hit : hits) {
+            texts.add(hit.getText());
+        }
+        return texts;
+    }
+}
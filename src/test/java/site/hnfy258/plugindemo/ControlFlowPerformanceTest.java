@@ -0,0 +1,151 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.codeInsight.daemon.RelatedItemLineMarkerInfo;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiStatement;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 在生成的极端形状源码上检查分析、行标记收集和弹窗渲染的耗时与内存预算，随 test/check 运行。
+ * 每次测量前都清掉语句上记录的子树和树缓存，测的是完整的冷分析。
+ * 分配字节数取自线程计数器，结果稳定，始终按预算检查；耗时和GC前后的堆占用受机器负载影响，
+ * 默认只按放宽LENIENT_FACTOR倍的耗时预算检查、常驻内存只打印，加 -PperfGate 时才严格检查。
+ * 预算留有较大余量，只用来拦住数量级上的退化；完整规模的压测仍用 runIde -PperfGate
+ */
+public class ControlFlowPerformanceTest extends BasePlatformTestCase {
+    private static final boolean STRICT = Boolean.getBoolean("visualizeif.perfGate");
+    private static final int LENIENT_FACTOR = 10;
+    private static final long ANALYZE_BUDGET_MS = 2_000;
+    private static final long GUTTER_BUDGET_MS = 1_000;
+    private static final long RENDER_BUDGET_MS = 1_000;
+    // 按树的节点数折算的分配和常驻内存预算
+    private static final long ANALYZE_BYTES_PER_NODE = 4_096;
+    private static final long RENDER_BYTES_PER_NODE = 1_024;
+    private static final long RETAINED_BYTES_PER_NODE = 256;
+    private static final long FIXED_BYTES = 4L << 20;
+
+    public void testElseIfChain() {
+        checkBudgets("ElseIfChain", PathologicalJavaSource.elseIfChain(2_000));
+    }
+
+    public void testDeepNesting() {
+        checkBudgets("DeepNesting", PathologicalJavaSource.deepNesting(200));
+    }
+
+    public void testWideSwitch() {
+        checkBudgets("WideSwitch", PathologicalJavaSource.classicSwitch(2_000) + PathologicalJavaSource.arrowSwitch(2_000));
+    }
+
+    public void testTryCatchLadder() {
+        checkBudgets("TryCatchLadder", PathologicalJavaSource.tryCatchLadder(100));
+    }
+
+    private void checkBudgets(String className, String methods) {
+        PsiJavaFile file = (PsiJavaFile) myFixture.configureByText(className + ".java",
+                "package pathological;\n\npublic class " + className + " {\n" + methods + "}\n");
+        IfTreeCacheService cacheService = IfTreeCacheService.getInstance(getProject());
+        for (PsiMethod method : file.getClasses()[0].getMethods()) {
+            String name = className + "#" + method.getName();
+            // 先跑一遍，排除类加载和JIT对计时的影响
+            new AnalyzeIf().analyze(method);
+
+            coldStart(method);
+            Measured<IFTreeNode> analyzed = measure(() -> new AnalyzeIf().analyze(method));
+            IFTreeNode root = analyzed.value;
+            assertFalse(name + " was truncated, the budgets below would not cover the whole tree",
+                    AnalyzeIf.isStopped(root));
+            long nodes = root.getMetrics().getNodeCount();
+            assertWithin(name + " analysis", analyzed, ANALYZE_BUDGET_MS, ANALYZE_BYTES_PER_NODE * nodes);
+
+            // 常驻内存按放入缓存前后GC后的堆占用之差估算，包括语句上记录的子树
+            coldStart(method);
+            long usedBefore = usedHeapAfterGc();
+            assertNotNull(cacheService.getIfTree(method));
+            long retained = usedHeapAfterGc() - usedBefore;
+            long retainedBudget = RETAINED_BYTES_PER_NODE * nodes + FIXED_BYTES;
+            String retainedMessage = name + " cached tree retains about " + retained + " bytes, budget " + retainedBudget;
+            if (STRICT) {
+                assertTrue(retainedMessage, retained <= retainedBudget);
+            } else {
+                System.out.println(retainedMessage);
+            }
+
+            // 缓存为空、没有索引数据时收集一次行标记：只用PSI摘要，不应触发分析
+            coldStart(method);
+            IfStatementLineMarkerProvider provider = new IfStatementLineMarkerProvider();
+            Measured<List<RelatedItemLineMarkerInfo<?>>> gutters = measure(() -> {
+                List<RelatedItemLineMarkerInfo<?>> result = new ArrayList<>();
+                provider.collectNavigationMarkers(method, result);
+                return result;
+            });
+            assertEquals(name, 1, gutters.value.size());
+            assertWithin(name + " gutter", gutters, GUTTER_BUDGET_MS, 0);
+            assertFalse(name + " gutter collection analyzed the method", cacheService.isCached(method));
+
+            CompactIfTree tree = root.toCompact();
+            assertWithin(name + " html", measure(() -> IfTreeHtmlRenderer.render(tree)),
+                    RENDER_BUDGET_MS, RENDER_BYTES_PER_NODE * nodes);
+            // 懒加载的视图只构建可见行，分配与树的大小无关，只有固定余量
+            assertWithin(name + " viewer", measure(() -> new IfTreeViewer(tree)), RENDER_BUDGET_MS, 0);
+        }
+    }
+
+    /**
+     * 清掉方法中所有语句上记录的子树和整个树缓存，之后的分析不会复用之前的结果
+     */
+    private void coldStart(PsiMethod method) {
+        for (PsiStatement statement : PsiTreeUtil.findChildrenOfType(method, PsiStatement.class)) {
+            AnalyzeIf.invalidateSubtrees(statement);
+        }
+        IfTreeCacheService.getInstance(getProject()).clear();
+    }
+
+    /**
+     * 分配预算在budgetBytes之外再加一份固定余量；非严格模式下耗时预算放宽LENIENT_FACTOR倍
+     */
+    private static void assertWithin(String what, Measured<?> measured, long budgetMs, long budgetBytes) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(measured.nanos);
+        long allowedMs = STRICT ? budgetMs : budgetMs * LENIENT_FACTOR;
+        assertTrue(what + " took " + millis + " ms, budget " + allowedMs + " ms", millis <= allowedMs);
+        long bytes = budgetBytes + FIXED_BYTES;
+        assertTrue(what + " allocated " + measured.allocatedBytes + " bytes, budget " + bytes,
+                measured.allocatedBytes <= bytes);
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static <T> Measured<T> measure(Supplier<T> action) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        T value = action.get();
+        long nanos = System.nanoTime() - start;
+        return new Measured<>(value, nanos, threads.getThreadAllocatedBytes(thread) - allocatedBefore);
+    }
+
+    private static final class Measured<T> {
+        final T value;
+        final long nanos;
+        final long allocatedBytes;
+
+        Measured(T value, long nanos, long allocatedBytes) {
+            this.value = value;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package site.hnfy258.plugindemo;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * 手工构造的小树上检查各种对比结果：调换顺序、新增、删除和只改标签
+ */
+public class IfTreeDiffTest extends TestCase {
+
+    public void testSameTreeIsUnchanged() {
+        IfTreeDiff.Node diff = IfTreeDiff.diff(method(ifNode("a"), whileNode("b")), method(ifNode("a"), whileNode("b")));
+        assertEquals(IfTreeDiff.Status.UNCHANGED, diff.getStatus());
+        assertFalse(diff.hasChanges());
+        assertTrue(diff.getChildren().isEmpty());
+    }
+
+    public void testWhitespaceOnlyChangeIsUnchanged() {
+        IfTreeDiff.Node diff = IfTreeDiff.diff(method(ifNode("a&&b")), method(ifNode("a &&\n        b")));
+        assertEquals(IfTreeDiff.Status.UNCHANGED, diff.getStatus());
+    }
+
+    public void testReorderedChildren() {
+        IFTreeNode first = ifNode("a");
+        IFTreeNode second = whileNode("b");
+        IfTreeDiff.Node diff = IfTreeDiff.diff(method(ifNode("a"), whileNode("b")), method(second, first));
+        // 结构哈希与子节点顺序有关，父节点算作修改，两个子树本身没有变化
+        assertEquals(IfTreeDiff.Status.CHANGED, diff.getStatus());
+        assertFalse(diff.isLabelChanged());
+        List<IfTreeDiff.Node> children = diff.getChildren();
+        assertEquals(2, children.size());
+        assertSame(second, children.get(0).getAfter());
+        assertSame(first, children.get(1).getAfter());
+        for (IfTreeDiff.Node child : children) {
+            assertEquals(IfTreeDiff.Status.UNCHANGED, child.getStatus());
+        }
+    }
+
+    public void testAddedChild() {
+        IFTreeNode added = new IFTreeNode(IFTreeNode.NodeType.CATCH, "IOException e");
+        IfTreeDiff.Node diff = IfTreeDiff.diff(method(ifNode("a")), method(ifNode("a"), added));
+        List<IfTreeDiff.Node> children = diff.getChildren();
+        assertEquals(2, children.size());
+        assertEquals(IfTreeDiff.Status.UNCHANGED, children.get(0).getStatus());
+        assertEquals(IfTreeDiff.Status.ADDED, children.get(1).getStatus());
+        assertNull(children.get(1).getBefore());
+        assertSame(added, children.get(1).getAfter());
+    }
+
+    public void testRemovedChildKeepsItsPosition() {
+        IFTreeNode removed = whileNode("b");
+        IfTreeDiff.Node diff = IfTreeDiff.diff(method(ifNode("a"), removed, ifNode("c")),
+                method(ifNode("a"), ifNode("c")));
+        List<IfTreeDiff.Node> children = diff.getChildren();
+        assertEquals(3, children.size());
+        assertEquals(IfTreeDiff.Status.UNCHANGED, children.get(0).getStatus());
+        assertEquals(IfTreeDiff.Status.REMOVED, children.get(1).getStatus());
+        assertSame(removed, children.get(1).getBefore());
+        assertNull(children.get(1).getAfter());
+        assertEquals(IfTreeDiff.Status.UNCHANGED, children.get(2).getStatus());
+    }
+
+    public void testLabelChanged() {
+        IfTreeDiff.Node diff = IfTreeDiff.diff(method(ifNode("x == null")), method(ifNode("x != null")));
+        IfTreeDiff.Node child = diff.getChildren().get(0);
+        assertEquals(IfTreeDiff.Status.CHANGED, child.getStatus());
+        assertTrue(child.isLabelChanged());
+        assertEquals("x == null → x != null", child.toString());
+    }
+
+    public void testChangeBelowUnchangedLabel() {
+        IFTreeNode before = ifNode("a");
+        before.addChild(whileNode("b"));
+        IFTreeNode after = ifNode("a");
+        after.addChild(whileNode("c"));
+        IfTreeDiff.Node child = IfTreeDiff.diff(method(before), method(after)).getChildren().get(0);
+        // 同类型的子节点按顺序配对后继续向下比较
+        assertEquals(IfTreeDiff.Status.CHANGED, child.getStatus());
+        assertFalse(child.isLabelChanged());
+        IfTreeDiff.Node grandChild = child.getChildren().get(0);
+        assertEquals(IfTreeDiff.Status.CHANGED, grandChild.getStatus());
+        assertTrue(grandChild.isLabelChanged());
+    }
+
+    public void testTypeChangeIsRemoveAndAdd() {
+        IfTreeDiff.Node diff = IfTreeDiff.diff(method(ifNode("a")), method(whileNode("a")));
+        List<IfTreeDiff.Node> children = diff.getChildren();
+        assertEquals(2, children.size());
+        assertEquals(IfTreeDiff.Status.ADDED, children.get(0).getStatus());
+        assertEquals(IfTreeDiff.Status.REMOVED, children.get(1).getStatus());
+    }
+
+    private static IFTreeNode method(IFTreeNode... children) {
+        IFTreeNode root = new IFTreeNode(IFTreeNode.NodeType.METHOD, "check()");
+        for (IFTreeNode child : children) {
+            root.addChild(child);
+        }
+        return root;
+    }
+
+    private static IFTreeNode ifNode(String condition) {
+        return new IFTreeNode(IFTreeNode.NodeType.IF, condition);
+    }
+
+    private static IFTreeNode whileNode(String condition) {
+        return new IFTreeNode(IFTreeNode.NodeType.WHILE, condition);
+    }
+}
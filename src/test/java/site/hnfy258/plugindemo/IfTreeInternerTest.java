@@ -0,0 +1,112 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 驻留池的规范化：结构和标签都相同的子树共享同一实例，哈希相同但标签不同的节点保持独立
+ */
+public class IfTreeInternerTest extends BasePlatformTestCase {
+
+    public void testRepeatedGuardIsSharedAcrossMethods() {
+        PsiJavaFile file = (PsiJavaFile) myFixture.configureByText("Guards.java", "package demo;\n"
+                + "\n"
+                + "public class Guards {\n"
+                + "    void first(String x) {\n"
+                + "        if (x == null) {\n"
+                + "            return;\n"
+                + "        }\n"
+                + "        System.out.println(x);\n"
+                + "    }\n"
+                + "\n"
+                + "    void second(String x) {\n"
+                + "        System.out.println(\"second\");\n"
+                + "        if (x == null) {\n"
+                + "            return;\n"
+                + "        }\n"
+                + "    }\n"
+                + "}\n");
+        PsiMethod[] methods = file.getClasses()[0].getMethods();
+        IFTreeNode first = findIf(new AnalyzeIf().analyze(methods[0]));
+        IFTreeNode second = findIf(new AnalyzeIf().analyze(methods[1]));
+        assertNotNull(first);
+        assertSame(first, second);
+        assertTrue(first.isShared());
+        assertEquals("if (x == null)", first.getText());
+    }
+
+    public void testIdenticalSubtreeIsReplaced() {
+        IfTreeInterner interner = new IfTreeInterner();
+        IFTreeNode firstIf = range(IFTreeNode.NodeType.IF, "    a > 1 && b    ", 4, 10);
+        IFTreeNode firstWhile = range(IFTreeNode.NodeType.WHILE, "(running)", 1, 7);
+        firstIf.addChild(firstWhile);
+        long hash = firstIf.getStructuralHash();
+        assertTrue(interner.internNew(List.of(firstIf, firstWhile)).isEmpty());
+        assertTrue(firstIf.isShared());
+        // 标签改为引用驻留时拼出的文本，显示的内容和哈希不变
+        assertEquals("if (a > 1 && b)", firstIf.getText());
+        assertEquals("while (running)", firstWhile.getText());
+        assertEquals(hash, firstIf.getStructuralHash());
+
+        IFTreeNode secondIf = range(IFTreeNode.NodeType.IF, "a > 1 && b", 0, 10);
+        IFTreeNode secondWhile = range(IFTreeNode.NodeType.WHILE, "while (running)", 7, 7);
+        secondIf.addChild(secondWhile);
+        Map<IFTreeNode, IFTreeNode> replaced = interner.internNew(List.of(secondIf, secondWhile));
+        assertSame(firstIf, replaced.get(secondIf));
+        assertSame(firstWhile, replaced.get(secondWhile));
+        assertEquals(hash, secondIf.getStructuralHash());
+    }
+
+    public void testSameHashWithDifferentLabelStaysDistinct() {
+        IfTreeInterner interner = new IfTreeInterner();
+        IFTreeNode compact = range(IFTreeNode.NodeType.IF, "a>1", 0, 3);
+        IFTreeNode spaced = range(IFTreeNode.NodeType.IF, "a > 1", 0, 5);
+        // 规范化的哈希忽略空白，两者在池中对应同一个键
+        assertEquals(compact.getStructuralHash(), spaced.getStructuralHash());
+        interner.internNew(List.of(compact));
+        assertTrue(interner.internNew(List.of(spaced)).isEmpty());
+        assertFalse(spaced.isShared());
+        assertEquals("if (a>1)", compact.getText());
+        assertEquals("if (a > 1)", spaced.getText());
+    }
+
+    public void testLargeSubtreeIsNotPooled() {
+        Registry.get("visualizeif.intern.maxSubtreeNodes").setValue(1, getTestRootDisposable());
+        IfTreeInterner interner = new IfTreeInterner();
+        IFTreeNode parent = new IFTreeNode(IFTreeNode.NodeType.IF, "a");
+        IFTreeNode child = new IFTreeNode(IFTreeNode.NodeType.STATEMENT, "return;");
+        parent.addChild(child);
+        interner.internNew(List.of(parent, child));
+        assertTrue(child.isShared());
+        assertFalse(parent.isShared());
+        assertEquals(1, interner.getSubtreeCount());
+        // 共享的子树只按一个引用计算
+        assertEquals(2, IfTreeInterner.unsharedSize(parent));
+    }
+
+    private static IFTreeNode range(IFTreeNode.NodeType type, String source, int start, int length) {
+        return new IFTreeNode(type, source, start, length);
+    }
+
+    private static IFTreeNode findIf(IFTreeNode root) {
+        Deque<IFTreeNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            IFTreeNode node = stack.pop();
+            if (node.getType() == IFTreeNode.NodeType.IF) {
+                return node;
+            }
+            for (IFTreeNode child : node.getChildren()) {
+                stack.push(child);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,135 @@
+package site.hnfy258.plugindemo;
+
+import com.intellij.lang.java.JavaLanguage;
+import com.intellij.pom.java.LanguageLevel;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 从文本解析的LighterAST分析结果应与基于PSI的AnalyzeIf一致
+ */
+public class LighterAstAnalyzeIfTest extends BasePlatformTestCase {
+    private static final String SOURCE = "package demo;\n"
+            + "\n"
+            + "public class Sample {\n"
+            + "    int check(int x, String s) {\n"
+            + "        if (x > 0) {\n"
+            + "            switch (s) {\n"
+            + "                case \"a\":\n"
+            + "                    if (x > 10) {\n"
+            + "                        return 1;\n"
+            + "                    } else if (x > 5) {\n"
+            + "                        return 2;\n"
+            + "                    }\n"
+            + "                    break;\n"
+            + "                case \"b\" -> {\n"
+            + "                    while (x-- > 0) {\n"
+            + "                        switch (x) { case 1: return 3; default: break; }\n"
+            + "                    }\n"
+            + "                }\n"
+            + "                default:\n"
+            + "                    return 4;\n"
+            + "            }\n"
+            + "        } else {\n"
+            + "            try {\n"
+            + "                for (int i = 0; i < x; i++) {\n"
+            + "                    if (i == s.length()) return i;\n"
+            + "                }\n"
+            + "            } catch (IllegalStateException e) {\n"
+            + "                return -1;\n"
+            + "            } finally {\n"
+            + "                x = 0;\n"
+            + "            }\n"
+            + "        }\n"
+            + "        return 0;\n"
+            + "    }\n"
+            + "\n"
+            + "    Runnable task() {\n"
+            + "        return new Runnable() {\n"
+            + "            public void run() {\n"
+            + "                if (Math.random() > 0.5) { System.out.println(); }\n"
+            + "            }\n"
+            + "        };\n"
+            + "    }\n"
+            + "}\n";
+
+    public void testParsedTreeMatchesPsiAnalysis() {
+        PsiJavaFile file = (PsiJavaFile) myFixture.configureByText("Sample.java", SOURCE);
+        PsiMethod method = file.getClasses()[0].findMethodsByName("check", false)[0];
+        IFTreeNode expected = new AnalyzeIf().analyze(method);
+
+        // 方法体是懒解析的代码块，分析时必须能展开
+        List<LighterAstAnalyzeIf.MethodTree> methods =
+                LighterAstAnalyzeIf.parse(getProject(), SOURCE, LanguageLevel.JDK_17).analyzeFile();
+        LighterAstAnalyzeIf.MethodTree parsed = methods.stream()
+                .filter(tree -> tree.getSignature().equals("demo.Sample#check(int,String)"))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("check(int,String) not found in " + methods.size() + " methods"));
+
+        assertEquals(method.getTextOffset(), parsed.getOffset());
+        assertEquals(expected.toString(), parsed.getTree().toString());
+        assertEquals(expected.getStructuralHash(), parsed.getTree().getStructuralHash());
+        assertEquals(expected.getMetrics().getCyclomaticComplexity(),
+                parsed.getTree().getMetrics().getCyclomaticComplexity());
+    }
+
+    public void testSignaturesMatchPsiIncludingAnonymousClasses() {
+        PsiJavaFile file = (PsiJavaFile) myFixture.configureByText("Sample.java", SOURCE);
+        List<LighterAstAnalyzeIf.MethodTree> methods =
+                LighterAstAnalyzeIf.parse(getProject(), SOURCE, LanguageLevel.JDK_17).analyzeFile();
+
+        Collection<PsiMethod> psiMethods = PsiTreeUtil.findChildrenOfType(file, PsiMethod.class);
+        assertEquals(psiMethods.size(), methods.size());
+        for (PsiMethod method : psiMethods) {
+            String signature = ControlFlowSummaryIndex.signatureOf(method);
+            assertTrue(signature, methods.stream().anyMatch(tree -> tree.getSignature().equals(signature)
+                    && tree.getOffset() == method.getTextOffset()));
+        }
+        assertTrue(methods.stream().anyMatch(tree -> tree.getSignature().equals("demo.Sample.$1#run()")));
+    }
+
+    public void testNullDefaultCaseIsDefault() {
+        String source = "package demo;\n"
+                + "\n"
+                + "public class Rules {\n"
+                + "    int rule(Object o) {\n"
+                + "        switch (o) {\n"
+                + "            case String s -> { return 1; }\n"
+                + "            case null, default -> { return 0; }\n"
+                + "        }\n"
+                + "    }\n"
+                + "\n"
+                + "    int label(Object o) {\n"
+                + "        switch (o) {\n"
+                + "            case null, default:\n"
+                + "                return 0;\n"
+                + "        }\n"
+                + "    }\n"
+                + "}\n";
+        // case null, default需要Java 21，与LighterAstAnalyzeIf.parse一样在解析前指定语言级别
+        PsiJavaFile file = (PsiJavaFile) PsiFileFactory.getInstance(getProject())
+                .createFileFromText("Rules.java", JavaLanguage.INSTANCE, source, false, false);
+        file.putUserData(PsiUtil.FILE_LANGUAGE_LEVEL_KEY, LanguageLevel.JDK_21);
+        List<LighterAstAnalyzeIf.MethodTree> methods =
+                LighterAstAnalyzeIf.parse(getProject(), source, LanguageLevel.JDK_21).analyzeFile();
+
+        for (PsiMethod method : file.getClasses()[0].getMethods()) {
+            IFTreeNode expected = new AnalyzeIf().analyze(method);
+            IFTreeNode parsed = methods.stream()
+                    .filter(tree -> tree.getOffset() == method.getTextOffset())
+                    .findFirst()
+                    .orElseThrow(() -> new AssertionError(method.getName() + " not found"))
+                    .getTree();
+            List<IFTreeNode> cases = parsed.getChildren().get(0).getChildren();
+            assertEquals(method.getName(), IFTreeNode.NodeType.DEFAULT, cases.get(cases.size() - 1).getType());
+            assertEquals(method.getName(), expected.toString(), parsed.toString());
+        }
+    }
+}